@@ -61,6 +61,14 @@ class AstPrinter implements Expr.Visitor<String> {
 		return "";
 	}
 	@Override
+	public String visitIndexExpr(Expr.Index expr) {
+		return "";
+	}
+	@Override
+	public String visitIndexSetExpr(Expr.IndexSet expr) {
+		return "";
+	}
+	@Override
 	public String visitThisExpr(Expr.This expr) {
 		return "";
 	}
@@ -68,6 +76,10 @@ class AstPrinter implements Expr.Visitor<String> {
 	public String visitSuperExpr(Expr.Super expr) {
 		return "";
 	}
+	@Override
+	public String visitFlatExpr(Expr.Flat expr) {
+		return "(flat)";
+	}
 
 	/*
 	 * A helper method to wraps a name and a
@@ -0,0 +1,74 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Lox source code read straight out of a memory-mapped
+ * file, so the Scanner never needs a decoded copy of
+ * the whole file
+ *
+ * Every byte is one char (Lox syntax is plain ASCII),
+ * the only place that needs to know about UTF-8 is a
+ * string literal, and that goes through toString() which
+ * decodes just the bytes of the slice.
+ *
+ * subSequence() is a view over the same bytes, nothing
+ * is copied until toString() is called.
+ */
+class ByteSource implements CharSequence {
+	private final ByteBuffer bytes;
+
+	private ByteSource(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	/*
+	 * Map the file at @path read-only
+	 * The mapping stays valid after the channel is closed
+	 *
+	 * @return ByteSource
+	 */
+	static ByteSource map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return new ByteSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/*
+	 * A view of the raw bytes, doesn't move
+	 * this source's position
+	 */
+	ByteBuffer bytes() {
+		return bytes.duplicate();
+	}
+
+	@Override
+	public int length() {
+		return bytes.limit();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char)(bytes.get(index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		ByteBuffer slice = bytes.duplicate();
+		slice.position(start).limit(end);
+		return new ByteSource(slice.slice());
+	}
+
+	/*
+	 * Decode the bytes as UTF-8
+	 */
+	@Override
+	public String toString() {
+		return StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+	}
+}
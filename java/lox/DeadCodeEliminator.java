@@ -0,0 +1,183 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * A pass that runs after the Resolver and trims
+ * statements that can never have an effect:
+ * 1. Statements after an unconditional return
+ * 2. Local variables that are never referenced and
+ * whose initializer has no side effects
+ * 3. Empty blocks
+ *
+ * Unused local functions are only flagged (as a warning),
+ * removing them is up to whoever wrote them.
+ *
+ * The pass rebuilds the statements that change and
+ * keeps every expression as is, so the resolution
+ * results stored in Interpreter (keyed by Expr) stay valid.
+ */
+class DeadCodeEliminator implements Stmt.Visitor<Stmt> {
+	// Name tokens of the local declarations never referenced,
+	// see Resolver.unused()
+	private final Set<Token> unused;
+
+	DeadCodeEliminator(Set<Token> unused) {
+		this.unused = unused;
+	}
+
+	/*
+	 * The main method
+	 *
+	 * @return List<Stmt> the statements that are left
+	 */
+	List<Stmt> eliminate(List<Stmt> statements) {
+		List<Stmt> result = new ArrayList<>();
+		for (Stmt statement : statements) {
+			Stmt stmt = statement.accept(this);
+			if (stmt == null) continue; // dead, drop it
+
+			result.add(stmt);
+			// Nothing after this one can run
+			if (alwaysReturns(stmt)) break;
+		}
+		return result;
+	}
+
+	/*
+	 * An empty block is dropped from a statement list, but a
+	 * branch or loop body still needs something to execute
+	 */
+	private Stmt eliminateBranch(Stmt stmt) {
+		Stmt result = stmt.accept(this);
+		if (result == null) return new Stmt.Block(new ArrayList<>());
+		return result;
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = eliminate(stmt.statements);
+		if (statements.isEmpty()) return null;
+		return new Stmt.Block(statements);
+	}
+
+	@Override
+	public Stmt visitClassStmt(Stmt.Class stmt) {
+		List<Stmt.Function> methods = new ArrayList<>();
+		for (Stmt.Function method : stmt.methods) {
+			methods.add(function(method));
+		}
+		return new Stmt.Class(stmt.name, stmt.superclass, methods);
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Stmt.Function stmt) {
+		if (unused.contains(stmt.name)) {
+			Lox.warning(stmt.name, "Unused function '" + stmt.name.lexeme + "'.");
+		}
+		return function(stmt);
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Stmt thenBranch = eliminateBranch(stmt.thenBranch);
+		Stmt elseBranch = null;
+		if (stmt.elseBranch != null) elseBranch = stmt.elseBranch.accept(this);
+		return new Stmt.If(stmt.condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitImportStmt(Stmt.Import stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitReturnStmt(Stmt.Return stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		if (unused.contains(stmt.name) &&
+		    (stmt.initializer == null || isPure(stmt.initializer))) {
+			return null;
+		}
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		return new Stmt.While(stmt.condition, eliminateBranch(stmt.body));
+	}
+
+	// ##################################################################
+	// Helpers
+
+	private Stmt.Function function(Stmt.Function stmt) {
+		// Trimmed once it's parsed
+		if (stmt.body instanceof LazyBody) return stmt;
+
+		return new Stmt.Function(stmt.name, stmt.params, stmt.types,
+					 eliminate(stmt.body));
+	}
+
+	/*
+	 * Helper method
+	 * Check if a statement returns no matter what,
+	 * so the statements after it are unreachable
+	 *
+	 * @return boolean
+	 */
+	private boolean alwaysReturns(Stmt stmt) {
+		if (stmt instanceof Stmt.Return) return true;
+		if (stmt instanceof Stmt.Block) {
+			List<Stmt> statements = ((Stmt.Block)stmt).statements;
+			return !statements.isEmpty() &&
+				alwaysReturns(statements.get(statements.size() - 1));
+		}
+		if (stmt instanceof Stmt.If) {
+			Stmt.If ifStmt = (Stmt.If)stmt;
+			return ifStmt.elseBranch != null &&
+				alwaysReturns(ifStmt.thenBranch) &&
+				alwaysReturns(ifStmt.elseBranch);
+		}
+		return false;
+	}
+
+	/*
+	 * Helper method
+	 * Check if evaluating an expression can't have
+	 * side effects nor throw a runtime error
+	 * Kept conservative, reading a variable can throw
+	 * if it is an undefined global
+	 *
+	 * @return boolean
+	 */
+	private boolean isPure(Expr expr) {
+		if (expr instanceof Expr.Literal) return true;
+		if (expr instanceof Expr.Grouping) {
+			return isPure(((Expr.Grouping)expr).expression);
+		}
+		if (expr instanceof Expr.Logical) {
+			Expr.Logical logical = (Expr.Logical)expr;
+			return isPure(logical.left) && isPure(logical.right);
+		}
+		if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)expr;
+			return unary.operator.type == TokenType.BANG && isPure(unary.right);
+		}
+		return false;
+	}
+}
@@ -1,6 +1,6 @@
 package lox;
 
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 /*
@@ -12,10 +12,14 @@ import java.util.Map;
  */
 class Environment {
 	final Environment enclosing;
-	// A hashmap to hold the identifiers and their values
+	// A map to hold the identifiers and their values
 	// All identifiders with the same name must refer
 	// to the same value so we use raw string for keys
-	private final Map<String, Object> values = new HashMap<>();
+	// Names are interned by the Scanner (and Java interns
+	// string literals like "this"), so keys are compared by
+	// identity, no hashCode()/equals() on every look up.
+	// !Every name passed in must be interned
+	private final Map<String, Object> values = new IdentityHashMap<>(4);
 
 	// For global scope env
 	Environment() {
@@ -0,0 +1,77 @@
+package lox;
+
+/*
+ * Where the Scanner and Parser report syntax errors
+ *
+ * Every source being scanned and parsed gets its own
+ * reporter, so several files can go through the front end
+ * at the same time (see ProgramLoader) without sharing
+ * Lox's static state. A reporter can hold its messages back
+ * until flush(), so errors come out in file order no matter
+ * which file finished first. When the program has several
+ * files, the reporter of each names its file in the
+ * messages.
+ */
+class ErrorReporter {
+	// Messages waiting for flush(), null when
+	// they are printed right away
+	private final StringBuilder held;
+	// Named in the messages, null to leave it out
+	private final String file;
+	private boolean hadError = false;
+
+	ErrorReporter() {
+		this(null, false);
+	}
+
+	ErrorReporter(String file, boolean hold) {
+		this.file = file;
+		this.held = hold ? new StringBuilder() : null;
+	}
+
+	void error(int line, String message) {
+		report(line, "", message);
+	}
+
+	/*
+	 * Overload error for parser error
+	 */
+	void error(Token token, String message) {
+		if (token.type == TokenType.EOF) {
+			report(token.line, " at end", message);
+		} else {
+			report(token.line, " at '" + token.lexeme + "'", message);
+		}
+	}
+
+	boolean hadError() {
+		return hadError;
+	}
+
+	/*
+	 * @return String or null if the messages don't name a file
+	 */
+	String file() {
+		return file;
+	}
+
+	/*
+	 * Print the messages held back so far
+	 */
+	void flush() {
+		if (held == null) return;
+		System.err.print(held);
+		held.setLength(0);
+	}
+
+	private void report(int line, String where, String message) {
+		String place = file == null ? "line " + line : file + ", line " + line;
+		String text = "[" + place + "] Error" + where + ": " + message;
+		if (held == null) {
+			System.err.println(text);
+		} else {
+			held.append(text).append(System.lineSeparator());
+		}
+		hadError = true;
+	}
+}
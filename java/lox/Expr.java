@@ -7,8 +7,11 @@ abstract class Expr {
 	R visitAssignExpr(Assign expr);
 	R visitBinaryExpr(Binary expr);
 	R visitCallExpr(Call expr);
+	R visitFlatExpr(Flat expr);
 	R visitGetExpr(Get expr);
 	R visitGroupingExpr(Grouping expr);
+	R visitIndexExpr(Index expr);
+	R visitIndexSetExpr(IndexSet expr);
 	R visitLiteralExpr(Literal expr);
 	R visitLogicalExpr(Logical expr);
 	R visitSetExpr(Set expr);
@@ -63,6 +66,18 @@ abstract class Expr {
 	final Token paren;
 	final List<Expr> arguments;
 	}
+ static class Flat extends Expr {
+	Flat(FlatExpr code){
+	this.code = code;
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor) {
+		return visitor.visitFlatExpr(this);
+	}
+
+	final FlatExpr code;
+	}
  static class Get extends Expr {
 	Get(Expr object, Token name){
 	this.object = object;
@@ -89,6 +104,40 @@ abstract class Expr {
 
 	final Expr expression;
 	}
+ static class Index extends Expr {
+	Index(Expr object, Token bracket, Expr index){
+	this.object = object;
+	this.bracket = bracket;
+	this.index = index;
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor) {
+		return visitor.visitIndexExpr(this);
+	}
+
+	final Expr object;
+	final Token bracket;
+	final Expr index;
+	}
+ static class IndexSet extends Expr {
+	IndexSet(Expr object, Token bracket, Expr index, Expr value){
+	this.object = object;
+	this.bracket = bracket;
+	this.index = index;
+	this.value = value;
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor) {
+		return visitor.visitIndexSetExpr(this);
+	}
+
+	final Expr object;
+	final Token bracket;
+	final Expr index;
+	final Expr value;
+	}
  static class Literal extends Expr {
 	Literal(Object value){
 	this.value = value;
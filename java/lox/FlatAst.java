@@ -0,0 +1,694 @@
+package lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The on-disk form of a resolved program in ProgramCache,
+ * a few flat arrays instead of a graph of Expr/Stmt objects
+ *
+ * It's only a storage format: a loaded program is decoded
+ * back into Expr/Stmt objects, and what runs flat is the
+ * FlatExpr the Flattener makes of their expressions. The
+ * flat layout is what makes writing it a dump of the
+ * arrays and reading it back a loop without recursion.
+ *
+ * Every node has a kind and a run of int operands, the
+ * meaning of the operands depends on the kind (see the
+ * node kinds below). An operand is one of:
+ * - a node index, -1 for a missing node
+ * - a token index, -1 for a missing token
+ * - a constant index, -1 for nil
+ * - a count followed by that many node/token indices
+ * - a number, e.g. the scope depth (-1 for globals)
+ *
+ * Nodes are stored children first, a node only ever points
+ * to nodes before it and the last node is a BLOCK holding
+ * the top level statements. That makes decode() a single
+ * loop over the nodes, no matter how deeply they nest.
+ *
+ * Tokens are stored as parallel arrays as well, see
+ * TokenBuffer, with their lexemes and literals in the
+ * constant table. Besides the tree, the operands carry what
+ * the Resolver stored in the Interpreter for each expression,
+ * so a decoded program is ready to run.
+ */
+class FlatAst {
+	// Node kinds
+	private static final byte ASSIGN = 0;	// name, value, depth, guard
+	private static final byte BINARY = 1;	// left, operator, right, specialized
+	private static final byte CALL = 2;	// callee, paren, count, arguments...
+	private static final byte GET = 3;	// object, name
+	private static final byte GROUPING = 4;	// expression
+	private static final byte LITERAL = 5;	// value
+	private static final byte LOGICAL = 6;	// left, operator, right
+	private static final byte SET = 7;	// object, name, value
+	private static final byte SUPER = 8;	// keyword, method, depth
+	private static final byte THIS = 9;	// keyword, depth
+	private static final byte UNARY = 10;	// operator, right, specialized
+	private static final byte VARIABLE = 11; // name, depth
+	private static final byte BLOCK = 12;	// count, statements...
+	private static final byte CLASS = 13;	// name, superclass, count, methods...
+	private static final byte EXPRESSION = 14; // expression
+	private static final byte FUNCTION = 15; // name, count, params..., types..., count, body...
+	private static final byte IF = 16;	// condition, then, else
+	private static final byte PRINT = 17;	// expression
+	private static final byte RETURN = 18;	// keyword, value
+	private static final byte VAR = 19;	// name, type, initializer
+	private static final byte WHILE = 20;	// condition, body
+	private static final byte IMPORT = 21;	// keyword, path
+	private static final byte INDEX = 22;	// object, bracket, index
+	private static final byte INDEX_SET = 23; // object, bracket, index, value
+
+	// Constant tags
+	private static final byte TRUE = 0;
+	private static final byte FALSE = 1;
+	private static final byte INTEGER = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte STRING = 4;
+
+	private static final TokenType[] TYPES = TokenType.values();
+
+	// One entry per node
+	private byte[] kinds;
+	private int[] offsets; // where the operands of a node start
+	private int nodeCount = 0;
+	private int[] operands;
+	private int operandCount = 0;
+	// One entry per token
+	private byte[] tokenTypes;
+	private int[] tokenLexemes; // constant index
+	private int[] tokenLiterals; // constant index
+	private int[] tokenLines;
+	private int tokenCount = 0;
+	// Strings, numbers and booleans
+	private Object[] constants;
+	private int constantCount = 0;
+
+	private FlatAst(int nodes, int operands, int tokens, int constants) {
+		this.kinds = new byte[nodes];
+		this.offsets = new int[nodes];
+		this.operands = new int[operands];
+		this.tokenTypes = new byte[tokens];
+		this.tokenLexemes = new int[tokens];
+		this.tokenLiterals = new int[tokens];
+		this.tokenLines = new int[tokens];
+		this.constants = new Object[constants];
+	}
+
+	/*
+	 * Flatten a resolved program
+	 *
+	 * @return FlatAst
+	 */
+	static FlatAst encode(List<Stmt> statements, Interpreter interpreter) {
+		FlatAst ast = new FlatAst(256, 1024, 256, 64);
+		new Encoder(ast, interpreter).program(statements);
+		return ast;
+	}
+
+	/*
+	 * Rebuild the statements and register their
+	 * resolution results with @interpreter
+	 *
+	 * @return List<Stmt>
+	 */
+	List<Stmt> decode(Interpreter interpreter) {
+		Object[] nodes = new Object[nodeCount];
+		Token[] tokens = new Token[tokenCount];
+		for (int i = 0; i < nodeCount; i++) {
+			nodes[i] = node(i, nodes, tokens, interpreter);
+		}
+		return ((Stmt.Block)nodes[nodeCount - 1]).statements;
+	}
+
+	/*
+	 * The arrays as they are, constants are tagged
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(nodeCount);
+		out.write(kinds, 0, nodeCount);
+		for (int i = 0; i < nodeCount; i++) out.writeInt(offsets[i]);
+
+		out.writeInt(operandCount);
+		for (int i = 0; i < operandCount; i++) out.writeInt(operands[i]);
+
+		out.writeInt(tokenCount);
+		out.write(tokenTypes, 0, tokenCount);
+		for (int i = 0; i < tokenCount; i++) {
+			out.writeInt(tokenLexemes[i]);
+			out.writeInt(tokenLiterals[i]);
+			out.writeInt(tokenLines[i]);
+		}
+
+		out.writeInt(constantCount);
+		for (int i = 0; i < constantCount; i++) writeConstant(out, constants[i]);
+	}
+
+	static FlatAst read(DataInputStream in) throws IOException {
+		int nodes = in.readInt();
+		byte[] kinds = new byte[nodes];
+		in.readFully(kinds);
+		int[] offsets = new int[nodes];
+		for (int i = 0; i < nodes; i++) offsets[i] = in.readInt();
+
+		int operandCount = in.readInt();
+		FlatAst ast = new FlatAst(0, operandCount, 0, 0);
+		for (int i = 0; i < operandCount; i++) ast.operands[i] = in.readInt();
+
+		int tokens = in.readInt();
+		ast.tokenTypes = new byte[tokens];
+		in.readFully(ast.tokenTypes);
+		ast.tokenLexemes = new int[tokens];
+		ast.tokenLiterals = new int[tokens];
+		ast.tokenLines = new int[tokens];
+		for (int i = 0; i < tokens; i++) {
+			ast.tokenLexemes[i] = in.readInt();
+			ast.tokenLiterals[i] = in.readInt();
+			ast.tokenLines[i] = in.readInt();
+		}
+
+		int constants = in.readInt();
+		ast.constants = new Object[constants];
+		for (int i = 0; i < constants; i++) ast.constants[i] = readConstant(in);
+
+		ast.kinds = kinds;
+		ast.offsets = offsets;
+		ast.nodeCount = nodes;
+		ast.operandCount = operandCount;
+		ast.tokenCount = tokens;
+		ast.constantCount = constants;
+		return ast;
+	}
+
+	// ##################################################################
+	// Encoding
+
+	/*
+	 * Walks the tree children first, each visit returns
+	 * the index of the node it added
+	 */
+	private static class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+		private final FlatAst ast;
+		private final Interpreter interpreter;
+		// Tokens and constants are only stored once
+		private final Map<Token, Integer> tokens = new IdentityHashMap<>();
+		private final Map<Object, Integer> constants = new HashMap<>();
+
+		Encoder(FlatAst ast, Interpreter interpreter) {
+			this.ast = ast;
+			this.interpreter = interpreter;
+		}
+
+		void program(List<Stmt> statements) {
+			int[] children = stmts(statements);
+			ast.addNode(BLOCK, count(children));
+		}
+
+		@Override
+		public Integer visitAssignExpr(Expr.Assign expr) {
+			int value = expr(expr.value);
+			String guard = interpreter.guardOf(expr);
+			return ast.addNode(ASSIGN, token(expr.name), value, depth(expr),
+					guard == null ? -1 : constant(guard));
+		}
+
+		@Override
+		public Integer visitBinaryExpr(Expr.Binary expr) {
+			int left = expr(expr.left);
+			int right = expr(expr.right);
+			return ast.addNode(BINARY, left, token(expr.operator), right, specialized(expr));
+		}
+
+		@Override
+		public Integer visitCallExpr(Expr.Call expr) {
+			int callee = expr(expr.callee);
+			int[] arguments = new int[expr.arguments.size()];
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = expr(expr.arguments.get(i));
+			}
+			return ast.addNode(CALL, concat(new int[] { callee, token(expr.paren) },
+						     count(arguments)));
+		}
+
+		@Override
+		public Integer visitGetExpr(Expr.Get expr) {
+			int object = expr(expr.object);
+			return ast.addNode(GET, object, token(expr.name));
+		}
+
+		@Override
+		public Integer visitGroupingExpr(Expr.Grouping expr) {
+			return ast.addNode(GROUPING, expr(expr.expression));
+		}
+
+		@Override
+		public Integer visitIndexExpr(Expr.Index expr) {
+			int object = expr(expr.object);
+			int index = expr(expr.index);
+			return ast.addNode(INDEX, object, token(expr.bracket), index);
+		}
+
+		@Override
+		public Integer visitIndexSetExpr(Expr.IndexSet expr) {
+			int object = expr(expr.object);
+			int index = expr(expr.index);
+			int value = expr(expr.value);
+			return ast.addNode(INDEX_SET, object, token(expr.bracket), index, value);
+		}
+
+		@Override
+		public Integer visitLiteralExpr(Expr.Literal expr) {
+			return ast.addNode(LITERAL, constant(expr.value));
+		}
+
+		@Override
+		public Integer visitLogicalExpr(Expr.Logical expr) {
+			int left = expr(expr.left);
+			int right = expr(expr.right);
+			return ast.addNode(LOGICAL, left, token(expr.operator), right);
+		}
+
+		@Override
+		public Integer visitSetExpr(Expr.Set expr) {
+			int object = expr(expr.object);
+			int value = expr(expr.value);
+			return ast.addNode(SET, object, token(expr.name), value);
+		}
+
+		@Override
+		public Integer visitSuperExpr(Expr.Super expr) {
+			return ast.addNode(SUPER, token(expr.keyword), token(expr.method), depth(expr));
+		}
+
+		@Override
+		public Integer visitFlatExpr(Expr.Flat expr) {
+			// Programs are saved before they are flattened
+			throw new UnsupportedOperationException("flattened expression in the cache");
+		}
+
+		@Override
+		public Integer visitThisExpr(Expr.This expr) {
+			return ast.addNode(THIS, token(expr.keyword), depth(expr));
+		}
+
+		@Override
+		public Integer visitUnaryExpr(Expr.Unary expr) {
+			int right = expr(expr.right);
+			return ast.addNode(UNARY, token(expr.operator), right, specialized(expr));
+		}
+
+		@Override
+		public Integer visitVariableExpr(Expr.Variable expr) {
+			return ast.addNode(VARIABLE, token(expr.name), depth(expr));
+		}
+
+		@Override
+		public Integer visitBlockStmt(Stmt.Block stmt) {
+			return ast.addNode(BLOCK, count(stmts(stmt.statements)));
+		}
+
+		@Override
+		public Integer visitClassStmt(Stmt.Class stmt) {
+			int superclass = expr(stmt.superclass);
+			int[] methods = stmts(stmt.methods);
+			return ast.addNode(CLASS, concat(new int[] { token(stmt.name), superclass },
+						      count(methods)));
+		}
+
+		@Override
+		public Integer visitExpressionStmt(Stmt.Expression stmt) {
+			return ast.addNode(EXPRESSION, expr(stmt.expression));
+		}
+
+		@Override
+		public Integer visitFunctionStmt(Stmt.Function stmt) {
+			int[] body = stmts(stmt.body);
+			int[] params = new int[stmt.params.size()];
+			int[] types = new int[params.length];
+			for (int i = 0; i < params.length; i++) {
+				params[i] = token(stmt.params.get(i));
+				types[i] = token(stmt.types.get(i));
+			}
+			return ast.addNode(FUNCTION, concat(new int[] { token(stmt.name) },
+							 count(params), types, count(body)));
+		}
+
+		@Override
+		public Integer visitIfStmt(Stmt.If stmt) {
+			int condition = expr(stmt.condition);
+			int thenBranch = stmt(stmt.thenBranch);
+			int elseBranch = stmt(stmt.elseBranch);
+			return ast.addNode(IF, condition, thenBranch, elseBranch);
+		}
+
+		@Override
+		public Integer visitImportStmt(Stmt.Import stmt) {
+			return ast.addNode(IMPORT, token(stmt.keyword), token(stmt.path));
+		}
+
+		@Override
+		public Integer visitPrintStmt(Stmt.Print stmt) {
+			return ast.addNode(PRINT, expr(stmt.expression));
+		}
+
+		@Override
+		public Integer visitReturnStmt(Stmt.Return stmt) {
+			int value = expr(stmt.value);
+			return ast.addNode(RETURN, token(stmt.keyword), value);
+		}
+
+		@Override
+		public Integer visitVarStmt(Stmt.Var stmt) {
+			int initializer = expr(stmt.initializer);
+			return ast.addNode(VAR, token(stmt.name), token(stmt.type), initializer);
+		}
+
+		@Override
+		public Integer visitWhileStmt(Stmt.While stmt) {
+			int condition = expr(stmt.condition);
+			int body = stmt(stmt.body);
+			return ast.addNode(WHILE, condition, body);
+		}
+
+		// Helpers
+
+		private int expr(Expr expr) {
+			if (expr == null) return -1;
+			return expr.accept(this);
+		}
+
+		private int stmt(Stmt stmt) {
+			if (stmt == null) return -1;
+			return stmt.accept(this);
+		}
+
+		private int[] stmts(List<? extends Stmt> statements) {
+			int[] indices = new int[statements.size()];
+			for (int i = 0; i < indices.length; i++) {
+				indices[i] = stmt(statements.get(i));
+			}
+			return indices;
+		}
+
+		private int token(Token token) {
+			if (token == null) return -1;
+
+			Integer index = tokens.get(token);
+			if (index == null) {
+				index = ast.addToken(token.type, constant(token.lexeme),
+						  constant(token.literal), token.line);
+				tokens.put(token, index);
+			}
+			return index;
+		}
+
+		private int constant(Object value) {
+			if (value == null) return -1;
+
+			Integer index = constants.get(value);
+			if (index == null) {
+				index = ast.addConstant(value);
+				constants.put(value, index);
+			}
+			return index;
+		}
+
+		private int depth(Expr expr) {
+			Integer depth = interpreter.depth(expr);
+			return depth == null ? -1 : depth;
+		}
+
+		private int specialized(Expr expr) {
+			return interpreter.isSpecialized(expr) ? 1 : 0;
+		}
+	}
+
+	// ##################################################################
+	// Decoding
+
+	/*
+	 * Build node @index, the nodes it points to are
+	 * already in @nodes
+	 */
+	private Object node(int index, Object[] nodes, Token[] tokens, Interpreter interpreter) {
+		int at = offsets[index];
+		switch (kinds[index]) {
+			case ASSIGN: {
+				Expr.Assign expr = new Expr.Assign(token(operands[at], tokens),
+								   (Expr)node(operands[at + 1], nodes));
+				depth(expr, operands[at + 2], interpreter);
+				if (operands[at + 3] != -1) {
+					interpreter.guard(expr, (String)constants[operands[at + 3]]);
+				}
+				return expr;
+			}
+			case BINARY: {
+				Expr expr = new Expr.Binary((Expr)node(operands[at], nodes),
+							    token(operands[at + 1], tokens),
+							    (Expr)node(operands[at + 2], nodes));
+				if (operands[at + 3] == 1) interpreter.specialize(expr);
+				return expr;
+			}
+			case CALL:
+				return new Expr.Call((Expr)node(operands[at], nodes),
+						     token(operands[at + 1], tokens),
+						     this.<Expr>nodes(at + 2, nodes));
+			case GET:
+				return new Expr.Get((Expr)node(operands[at], nodes),
+						    token(operands[at + 1], tokens));
+			case GROUPING:
+				return new Expr.Grouping((Expr)node(operands[at], nodes));
+			case LITERAL:
+				return new Expr.Literal(constant(operands[at]));
+			case LOGICAL:
+				return new Expr.Logical((Expr)node(operands[at], nodes),
+							token(operands[at + 1], tokens),
+							(Expr)node(operands[at + 2], nodes));
+			case SET:
+				return new Expr.Set((Expr)node(operands[at], nodes),
+						    token(operands[at + 1], tokens),
+						    (Expr)node(operands[at + 2], nodes));
+			case SUPER:
+				return depth(new Expr.Super(token(operands[at], tokens),
+							    token(operands[at + 1], tokens)),
+					     operands[at + 2], interpreter);
+			case THIS:
+				return depth(new Expr.This(token(operands[at], tokens)),
+					     operands[at + 1], interpreter);
+			case UNARY: {
+				Expr expr = new Expr.Unary(token(operands[at], tokens),
+							   (Expr)node(operands[at + 1], nodes));
+				if (operands[at + 2] == 1) interpreter.specialize(expr);
+				return expr;
+			}
+			case VARIABLE:
+				return depth(new Expr.Variable(token(operands[at], tokens)),
+					     operands[at + 1], interpreter);
+			case BLOCK:
+				return new Stmt.Block(this.<Stmt>nodes(at, nodes));
+			case CLASS:
+				return new Stmt.Class(token(operands[at], tokens),
+						      (Expr.Variable)node(operands[at + 1], nodes),
+						      this.<Stmt.Function>nodes(at + 2, nodes));
+			case EXPRESSION:
+				return new Stmt.Expression((Expr)node(operands[at], nodes));
+			case FUNCTION: {
+				int count = operands[at + 1];
+				List<Token> params = new ArrayList<>(count);
+				List<Token> types = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					params.add(token(operands[at + 2 + i], tokens));
+					types.add(token(operands[at + 2 + count + i], tokens));
+				}
+				return new Stmt.Function(token(operands[at], tokens), params, types,
+							 this.<Stmt>nodes(at + 2 + 2 * count, nodes));
+			}
+			case IF:
+				return new Stmt.If((Expr)node(operands[at], nodes),
+						   (Stmt)node(operands[at + 1], nodes),
+						   (Stmt)node(operands[at + 2], nodes));
+			case PRINT:
+				return new Stmt.Print((Expr)node(operands[at], nodes));
+			case RETURN:
+				return new Stmt.Return(token(operands[at], tokens),
+						       (Expr)node(operands[at + 1], nodes));
+			case VAR:
+				return new Stmt.Var(token(operands[at], tokens),
+						    token(operands[at + 1], tokens),
+						    (Expr)node(operands[at + 2], nodes));
+			case WHILE:
+				return new Stmt.While((Expr)node(operands[at], nodes),
+						      (Stmt)node(operands[at + 1], nodes));
+			case IMPORT:
+				return new Stmt.Import(token(operands[at], tokens),
+						       token(operands[at + 1], tokens));
+			case INDEX:
+				return new Expr.Index((Expr)node(operands[at], nodes),
+						      token(operands[at + 1], tokens),
+						      (Expr)node(operands[at + 2], nodes));
+			case INDEX_SET:
+				return new Expr.IndexSet((Expr)node(operands[at], nodes),
+							 token(operands[at + 1], tokens),
+							 (Expr)node(operands[at + 2], nodes),
+							 (Expr)node(operands[at + 3], nodes));
+		}
+		throw new IllegalStateException("Unknown node kind " + kinds[index] + ".");
+	}
+
+	private static Object node(int index, Object[] nodes) {
+		return index == -1 ? null : nodes[index];
+	}
+
+	/*
+	 * A count at @at followed by that many node indices
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> nodes(int at, Object[] nodes) {
+		int count = operands[at];
+		List<T> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) list.add((T)node(operands[at + 1 + i], nodes));
+		return list;
+	}
+
+	/*
+	 * Tokens are shared by the nodes that point to
+	 * them, like they were after parsing
+	 * Lexemes are interned again, runtime maps compare
+	 * names by identity (see Environment)
+	 */
+	private Token token(int index, Token[] tokens) {
+		if (index == -1) return null;
+		if (tokens[index] == null) {
+			String lexeme = ((String)constants[tokenLexemes[index]]).intern();
+			tokens[index] = new Token(TYPES[tokenTypes[index]], lexeme,
+						  constant(tokenLiterals[index]), tokenLines[index]);
+		}
+		return tokens[index];
+	}
+
+	private Object constant(int index) {
+		return index == -1 ? null : constants[index];
+	}
+
+	private static Expr depth(Expr expr, int depth, Interpreter interpreter) {
+		if (depth >= 0) interpreter.resolve(expr, depth);
+		return expr;
+	}
+
+	// ##################################################################
+	// Helpers
+
+	/*
+	 * Append a node, @operands as laid out for @kind
+	 *
+	 * @return int index of the node
+	 */
+	private int addNode(byte kind, int... operands) {
+		if (nodeCount == kinds.length) {
+			kinds = Arrays.copyOf(kinds, nodeCount * 2);
+			offsets = Arrays.copyOf(offsets, nodeCount * 2);
+		}
+		if (operandCount + operands.length > this.operands.length) {
+			this.operands = Arrays.copyOf(this.operands,
+						      Math.max(this.operands.length * 2,
+							       operandCount + operands.length));
+		}
+
+		kinds[nodeCount] = kind;
+		offsets[nodeCount] = operandCount;
+		System.arraycopy(operands, 0, this.operands, operandCount, operands.length);
+		operandCount += operands.length;
+		return nodeCount++;
+	}
+
+	private int addToken(TokenType type, int lexeme, int literal, int line) {
+		if (tokenCount == tokenTypes.length) {
+			tokenTypes = Arrays.copyOf(tokenTypes, tokenCount * 2);
+			tokenLexemes = Arrays.copyOf(tokenLexemes, tokenCount * 2);
+			tokenLiterals = Arrays.copyOf(tokenLiterals, tokenCount * 2);
+			tokenLines = Arrays.copyOf(tokenLines, tokenCount * 2);
+		}
+
+		tokenTypes[tokenCount] = (byte)type.ordinal();
+		tokenLexemes[tokenCount] = lexeme;
+		tokenLiterals[tokenCount] = literal;
+		tokenLines[tokenCount] = line;
+		return tokenCount++;
+	}
+
+	private int addConstant(Object value) {
+		if (constantCount == constants.length) {
+			constants = Arrays.copyOf(constants, constantCount * 2);
+		}
+
+		constants[constantCount] = value;
+		return constantCount++;
+	}
+
+	/*
+	 * A count followed by @indices
+	 */
+	private static int[] count(int[] indices) {
+		int[] counted = new int[indices.length + 1];
+		counted[0] = indices.length;
+		System.arraycopy(indices, 0, counted, 1, indices.length);
+		return counted;
+	}
+
+	private static int[] concat(int[]... parts) {
+		int length = 0;
+		for (int[] part : parts) length += part.length;
+
+		int[] result = new int[length];
+		int at = 0;
+		for (int[] part : parts) {
+			System.arraycopy(part, 0, result, at, part.length);
+			at += part.length;
+		}
+		return result;
+	}
+
+	private static void writeConstant(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof Boolean) {
+			out.writeByte((Boolean)value ? TRUE : FALSE);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer)value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double)value);
+		} else {
+			// Length-prefixed UTF-8, unlike writeUTF()
+			// there is no 64KB limit on string literals
+			byte[] bytes = ((String)value).getBytes(StandardCharsets.UTF_8);
+			out.writeByte(STRING);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static Object readConstant(DataInputStream in) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+			case TRUE: return true;
+			case FALSE: return false;
+			case INTEGER: return in.readInt();
+			case DOUBLE: return in.readDouble();
+			case STRING: {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+		}
+		throw new IOException("Unknown constant tag " + tag + ".");
+	}
+}
@@ -0,0 +1,149 @@
+package lox;
+
+import java.util.Arrays;
+
+/*
+ * An expression stored in flat arrays instead of a tree
+ * of Expr objects, the Interpreter walks it by index
+ * (see Interpreter.visitFlatExpr())
+ *
+ * Only expressions made of literals, variables, groupings
+ * and unary, binary and logical operators are flattened
+ * (see Flattener), they have no side effects other than
+ * their runtime errors. Every node is 4 ints, a kind and 3
+ * operands, the meaning of the operands depends on the
+ * kind (see the node kinds below). An operand is one of:
+ * - a node index
+ * - a constant index, literal values and tokens
+ * - the scope depth of a local variable
+ *
+ * Nodes are stored children first and the last one is
+ * the root. What the Resolver found for each node is in
+ * the operands (a local's depth, whether an operator only
+ * sees numbers), reading a variable doesn't go through the
+ * Interpreter's tables, and groupings are gone.
+ */
+class FlatExpr {
+	// Node kinds
+	static final int LITERAL = 0;	// value
+	static final int LOCAL = 1;	// name, depth
+	static final int GLOBAL = 2;	// name
+	static final int UNARY = 3;	// operator, right
+	static final int NUMERIC_UNARY = 4; // operator, right, known to be a number
+	static final int BINARY = 5;	// operator, left, right
+	static final int NUMERIC_BINARY = 6; // operator, left, right, known to be numbers
+	static final int LOGICAL = 7;	// operator, left, right
+
+	private static final int WIDTH = 4; // kind and operands
+
+	final int[] nodes;
+	final Object[] constants;
+	final int root;
+
+	private FlatExpr(int[] nodes, Object[] constants) {
+		this.nodes = nodes;
+		this.constants = constants;
+		this.root = nodes.length / WIDTH - 1;
+	}
+
+	/*
+	 * Flatten a resolved @expr made only of the node types
+	 * above (and groupings), and drop what the @interpreter
+	 * stored for its nodes
+	 *
+	 * @return FlatExpr
+	 */
+	static FlatExpr encode(Expr expr, Interpreter interpreter) {
+		Encoder encoder = new Encoder(interpreter);
+		encoder.node(expr);
+		return encoder.finish();
+	}
+
+	/*
+	 * Where @node starts in @nodes, its kind is there
+	 * and its operands follow
+	 */
+	static int at(int node) {
+		return node * WIDTH;
+	}
+
+	// ##################################################################
+	// Encoding
+
+	private static class Encoder {
+		private final Interpreter interpreter;
+		private int[] nodes = new int[8 * WIDTH];
+		private int count = 0;
+		private Object[] constants = new Object[8];
+		private int constantCount = 0;
+
+		Encoder(Interpreter interpreter) {
+			this.interpreter = interpreter;
+		}
+
+		/*
+		 * Add @expr and its children
+		 *
+		 * @return int the index of @expr's node
+		 */
+		int node(Expr expr) {
+			if (expr instanceof Expr.Grouping) {
+				return node(((Expr.Grouping)expr).expression);
+			}
+
+			int node;
+			if (expr instanceof Expr.Literal) {
+				node = add(LITERAL, constant(((Expr.Literal)expr).value), 0, 0);
+			} else if (expr instanceof Expr.Variable) {
+				Token name = ((Expr.Variable)expr).name;
+				Integer depth = interpreter.depth(expr);
+				if (depth == null) node = add(GLOBAL, constant(name), 0, 0);
+				else node = add(LOCAL, constant(name), depth, 0);
+			} else if (expr instanceof Expr.Unary) {
+				Expr.Unary unary = (Expr.Unary)expr;
+				int right = node(unary.right);
+				int kind = interpreter.isSpecialized(expr) ? NUMERIC_UNARY : UNARY;
+				node = add(kind, constant(unary.operator), right, 0);
+			} else if (expr instanceof Expr.Binary) {
+				Expr.Binary binary = (Expr.Binary)expr;
+				int left = node(binary.left);
+				int right = node(binary.right);
+				int kind = interpreter.isSpecialized(expr) ? NUMERIC_BINARY : BINARY;
+				node = add(kind, constant(binary.operator), left, right);
+			} else {
+				Expr.Logical logical = (Expr.Logical)expr;
+				int left = node(logical.left);
+				int right = node(logical.right);
+				node = add(LOGICAL, constant(logical.operator), left, right);
+			}
+
+			interpreter.forget(expr);
+			return node;
+		}
+
+		FlatExpr finish() {
+			return new FlatExpr(Arrays.copyOf(nodes, at(count)),
+					    Arrays.copyOf(constants, constantCount));
+		}
+
+		private int add(int kind, int a, int b, int c) {
+			if (at(count) == nodes.length) {
+				nodes = Arrays.copyOf(nodes, nodes.length * 2);
+			}
+			int at = at(count);
+			nodes[at] = kind;
+			nodes[at + 1] = a;
+			nodes[at + 2] = b;
+			nodes[at + 3] = c;
+			return count++;
+		}
+
+		private int constant(Object value) {
+			if (constantCount == constants.length) {
+				constants = Arrays.copyOf(constants, constantCount * 2);
+			}
+			constants[constantCount] = value;
+			return constantCount++;
+		}
+	}
+}
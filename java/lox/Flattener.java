@@ -0,0 +1,316 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A pass that runs on resolved (and trimmed) statements
+ * right before they run and turns expressions into
+ * FlatExprs where it can
+ *
+ * An expression is flattened as a whole when every node of
+ * it fits in a FlatExpr and it has at least one operator,
+ * a lone literal or variable gains nothing. When only part
+ * of an expression fits (a + f(b * c)), the largest parts
+ * that do are flattened (b * c) and the rest stays a tree.
+ *
+ * Nodes that change are rebuilt and what the Interpreter
+ * stored for the old node moves to the new one (see
+ * Interpreter.moved()), nodes that don't change are
+ * kept as they are.
+ */
+class Flattener implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+	private final Interpreter interpreter;
+	// Whether the expression the last visit returned is a
+	// tree that can still be flattened as a whole
+	private boolean fits = false;
+
+	Flattener(Interpreter interpreter) {
+		this.interpreter = interpreter;
+	}
+
+	/*
+	 * The main method
+	 *
+	 * @return List<Stmt> @statements or, if anything was
+	 * 	   flattened, a copy with the new statements
+	 */
+	List<Stmt> flatten(List<Stmt> statements) {
+		List<Stmt> result = null; // copied on the first change
+		for (int i = 0; i < statements.size(); i++) {
+			Stmt stmt = statements.get(i);
+			Stmt flattened = stmt.accept(this);
+			if (flattened != stmt && result == null) {
+				result = new ArrayList<>(statements.subList(0, i));
+			}
+			if (result != null) result.add(flattened);
+		}
+		return result == null ? statements : result;
+	}
+
+	// ##################################################################
+	// Statements
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = flatten(stmt.statements);
+		if (statements == stmt.statements) return stmt;
+		return new Stmt.Block(statements);
+	}
+
+	@Override
+	public Stmt visitClassStmt(Stmt.Class stmt) {
+		List<Stmt.Function> methods = new ArrayList<>();
+		boolean changed = false;
+		for (Stmt.Function method : stmt.methods) {
+			Stmt.Function flattened = function(method);
+			methods.add(flattened);
+			changed |= flattened != method;
+		}
+		if (!changed) return stmt;
+		return new Stmt.Class(stmt.name, stmt.superclass, methods);
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = root(stmt.expression);
+		if (expression == stmt.expression) return stmt;
+		return new Stmt.Expression(expression);
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Stmt.Function stmt) {
+		return function(stmt);
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = root(stmt.condition);
+		Stmt thenBranch = stmt.thenBranch.accept(this);
+		Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+		if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+		    elseBranch == stmt.elseBranch) {
+			return stmt;
+		}
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitImportStmt(Stmt.Import stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = root(stmt.expression);
+		if (expression == stmt.expression) return stmt;
+		return new Stmt.Print(expression);
+	}
+
+	@Override
+	public Stmt visitReturnStmt(Stmt.Return stmt) {
+		if (stmt.value == null) return stmt;
+		Expr value = root(stmt.value);
+		if (value == stmt.value) return stmt;
+		return new Stmt.Return(stmt.keyword, value);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		if (stmt.initializer == null) return stmt;
+		Expr initializer = root(stmt.initializer);
+		if (initializer == stmt.initializer) return stmt;
+		return new Stmt.Var(stmt.name, stmt.type, initializer);
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		Expr condition = root(stmt.condition);
+		Stmt body = stmt.body.accept(this);
+		if (condition == stmt.condition && body == stmt.body) return stmt;
+		return new Stmt.While(condition, body);
+	}
+
+	// ##################################################################
+	// Expressions that fit, they are returned as they are
+	// for their parent to flatten
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		fits = true;
+		return expr;
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		fits = true;
+		return expr;
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = expr.expression.accept(this);
+		if (fits || expression == expr.expression) return expr;
+		return rebuilt(expr, new Expr.Grouping(expression));
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = expr.right.accept(this);
+		if (fits || right == expr.right) return expr;
+		return rebuilt(expr, new Expr.Unary(expr.operator, right));
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = expr.left.accept(this);
+		boolean leftFits = fits;
+		Expr right = expr.right.accept(this);
+		if (leftFits && fits) return expr;
+
+		// Only one side fits, it's flattened on its own
+		if (leftFits) left = flatten(left);
+		if (fits) right = flatten(right);
+		fits = false;
+		if (left == expr.left && right == expr.right) return expr;
+		return rebuilt(expr, new Expr.Binary(left, expr.operator, right));
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		Expr left = expr.left.accept(this);
+		boolean leftFits = fits;
+		Expr right = expr.right.accept(this);
+		if (leftFits && fits) return expr;
+
+		// Only one side fits, it's flattened on its own
+		if (leftFits) left = flatten(left);
+		if (fits) right = flatten(right);
+		fits = false;
+		if (left == expr.left && right == expr.right) return expr;
+		return rebuilt(expr, new Expr.Logical(left, expr.operator, right));
+	}
+
+	// ##################################################################
+	// Expressions that don't fit, their children are
+	// flattened on their own
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr value = root(expr.value);
+		fits = false;
+		if (value == expr.value) return expr;
+		return rebuilt(expr, new Expr.Assign(expr.name, value));
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		Expr callee = root(expr.callee);
+		List<Expr> arguments = new ArrayList<>();
+		boolean changed = callee != expr.callee;
+		for (Expr argument : expr.arguments) {
+			Expr flattened = root(argument);
+			arguments.add(flattened);
+			changed |= flattened != argument;
+		}
+		fits = false;
+		if (!changed) return expr;
+		return rebuilt(expr, new Expr.Call(callee, expr.paren, arguments));
+	}
+
+	@Override
+	public Expr visitGetExpr(Expr.Get expr) {
+		Expr object = root(expr.object);
+		fits = false;
+		if (object == expr.object) return expr;
+		return rebuilt(expr, new Expr.Get(object, expr.name));
+	}
+
+	@Override
+	public Expr visitIndexExpr(Expr.Index expr) {
+		Expr object = root(expr.object);
+		Expr index = root(expr.index);
+		fits = false;
+		if (object == expr.object && index == expr.index) return expr;
+		return rebuilt(expr, new Expr.Index(object, expr.bracket, index));
+	}
+
+	@Override
+	public Expr visitIndexSetExpr(Expr.IndexSet expr) {
+		Expr object = root(expr.object);
+		Expr index = root(expr.index);
+		Expr value = root(expr.value);
+		fits = false;
+		if (object == expr.object && index == expr.index && value == expr.value) return expr;
+		return rebuilt(expr, new Expr.IndexSet(object, expr.bracket, index, value));
+	}
+
+	@Override
+	public Expr visitSetExpr(Expr.Set expr) {
+		Expr object = root(expr.object);
+		Expr value = root(expr.value);
+		fits = false;
+		if (object == expr.object && value == expr.value) return expr;
+		return rebuilt(expr, new Expr.Set(object, expr.name, value));
+	}
+
+	@Override
+	public Expr visitSuperExpr(Expr.Super expr) {
+		fits = false;
+		return expr;
+	}
+
+	@Override
+	public Expr visitThisExpr(Expr.This expr) {
+		fits = false;
+		return expr;
+	}
+
+	@Override
+	public Expr visitFlatExpr(Expr.Flat expr) {
+		fits = false;
+		return expr;
+	}
+
+	// ##################################################################
+	// Helpers
+
+	private Stmt.Function function(Stmt.Function stmt) {
+		// Flattened once it's parsed
+		if (stmt.body instanceof LazyBody) return stmt;
+
+		List<Stmt> body = flatten(stmt.body);
+		if (body == stmt.body) return stmt;
+		return new Stmt.Function(stmt.name, stmt.params, stmt.types, body);
+	}
+
+	/*
+	 * Flatten an expression held by a statement or by
+	 * an expression that doesn't fit
+	 */
+	private Expr root(Expr expr) {
+		Expr result = expr.accept(this);
+		return fits ? flatten(result) : result;
+	}
+
+	/*
+	 * Turn @expr, that fits as a whole, into a FlatExpr
+	 * if it has an operator
+	 */
+	private Expr flatten(Expr expr) {
+		Expr inner = expr;
+		while (inner instanceof Expr.Grouping) inner = ((Expr.Grouping)inner).expression;
+		if (inner instanceof Expr.Literal || inner instanceof Expr.Variable) return expr;
+
+		return new Expr.Flat(FlatExpr.encode(expr, interpreter));
+	}
+
+	/*
+	 * @rebuilt replaces @expr, move what the
+	 * Interpreter knows about it
+	 */
+	private Expr rebuilt(Expr expr, Expr rebuilt) {
+		interpreter.moved(expr, rebuilt);
+		return rebuilt;
+	}
+}
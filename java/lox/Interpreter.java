@@ -1,11 +1,18 @@
 package lox;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	/*
@@ -13,18 +20,84 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	 * is running
 	 * Refers to the current environment.
 	 */
-	final Environment globals = new Environment();
-	private Environment environment = globals;
+	final Environment globals;
+	private Environment environment;
 	/*
 	 * Resolved identifiers, populated by the Resolve class
+	 *
+	 * In a session (the REPL) these maps and sets only hold
+	 * on to their expressions weakly, so what was resolved for
+	 * code that can't run anymore (e.g. a redefined function)
+	 * is dropped along with that code
+	 */
+	private final Map<Expr, Integer> locals;
+	/*
+	 * Arithmetic/comparison expressions the Resolver proved
+	 * to only see numbers (from type hints), their operands
+	 * don't need to be checked
+	 */
+	private final Set<Expr> numerics;
+	/*
+	 * Assignments to typed variables whose values need
+	 * a type check, populated by the Resolve class
+	 */
+	private final Map<Expr, String> guards;
+	/*
+	 * Type hints of globals by name, the Resolver only
+	 * sees locals: a global can be declared by a later
+	 * line, module or REPL input than the code assigning
+	 * it, so these are checked as the program runs
+	 */
+	private final Map<String, String> globalTypes;
+	/*
+	 * Type feedback, only when running with --profile
+	 * Binary expressions in @speculated only saw numbers last
+	 * time, they take the numericBinary() path when they
+	 * see numbers again
+	 */
+	private TypeProfile profile = null;
+	private final Set<Expr> speculated;
+	/*
+	 * Modules are imported relative to @moduleRoot (the
+	 * directory of the script being run) and only run
+	 * once per process, @modules has the ones already
+	 * imported
 	 */
-	private final Map<Expr, Integer> locals = new HashMap<>();
+	private Path moduleRoot = Paths.get("");
+	private final Set<Path> modules;
+	private final boolean session;
+	// Made by fork(), running a parallel function
+	private final boolean forked;
 
+	Interpreter() {
+		this(false);
+	}
 
 	/*
 	 * Define native functions
+	 *
+	 * @param boolean session true for a long-lived session
+	 * running input one piece at a time
 	 */
-	Interpreter() {
+	Interpreter(boolean session) {
+		this.session = session;
+		forked = false;
+		globals = new Environment();
+		environment = globals;
+		modules = new HashSet<>();
+		globalTypes = new HashMap<>();
+		if (session) {
+			locals = new WeakHashMap<>();
+			numerics = Collections.newSetFromMap(new WeakHashMap<>());
+			guards = new WeakHashMap<>();
+			speculated = Collections.newSetFromMap(new WeakHashMap<>());
+		} else {
+			locals = new HashMap<>();
+			numerics = new HashSet<>();
+			guards = new HashMap<>();
+			speculated = new HashSet<>();
+		}
+
 		globals.define("clock", new LoxCallable() {
 			@Override
 			public int arity() { return 0; }
@@ -50,13 +123,180 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				if (size == null) {
 					return new LoxArray(arguments.get(0));
 				} else {
-					return new LoxArray(size.intValue());
+					return new LoxArray(LoxArray.checkLength(size));
+				}
+			}
+
+			@Override
+			public String toString() { return "<array>"; }
+		});
+		globals.define("Float64Array", new LoxCallable() {
+			@Override
+			public int arity() { return 1; } // 1 argument: array length
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				Double size = scaryCastNumber(arguments.get(0));
+				if (size == null || size < 0) {
+					throw new RuntimeError(null, "Float64Array length must be a non-negative number.");
 				}
+				return LoxArray.float64(LoxArray.checkLength(size));
 			}
 
 			@Override
 			public String toString() { return "<array>"; }
 		});
+		globals.define("OffHeapArray", new LoxCallable() {
+			@Override
+			public int arity() { return 2; } // length and element type
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				return new OffHeapArray(arrayType(arguments.get(1)),
+						arrayLength(arguments.get(0)));
+			}
+
+			@Override
+			public String toString() { return "<array>"; }
+		});
+		globals.define("MappedArray", new LoxCallable() {
+			@Override
+			public int arity() { return 3; } // file, element type and length
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				Object name = arguments.get(0);
+				if (!(name instanceof String)) {
+					throw new RuntimeError(null, "Array file must be a string.");
+				}
+				OffHeapArray.Type type = arrayType(arguments.get(1));
+				// nil maps the whole file
+				Long length = arguments.get(2) == null ? null : arrayLength(arguments.get(2));
+
+				// Relative to the script, like imports
+				Path path = moduleRoot.resolve((String)name);
+				try {
+					return MappedArray.open(path, type, length);
+				} catch (IOException error) {
+					throw new RuntimeError(null, "Can't map file '" + name + "'.");
+				}
+			}
+
+			@Override
+			public String toString() { return "<array>"; }
+		});
+		globals.define("Map", new LoxCallable() {
+			@Override
+			public int arity() { return 0; }
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				return new LoxMap();
+			}
+
+			@Override
+			public String toString() { return "<map>"; }
+		});
+		globals.define("Deque", new LoxCallable() {
+			@Override
+			public int arity() { return 0; }
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				return new LoxDeque();
+			}
+
+			@Override
+			public String toString() { return "<deque>"; }
+		});
+		globals.define("PriorityQueue", new LoxCallable() {
+			@Override
+			public int arity() { return 1; } // comparator, nil for numbers
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				Object comparator = arguments.get(0);
+				if (comparator != null && !(comparator instanceof LoxCallable &&
+						((LoxCallable)comparator).arity() == 2)) {
+					throw new RuntimeError(null, "Comparator must be a function of 2 arguments or nil.");
+				}
+				return new LoxPriorityQueue((LoxCallable)comparator);
+			}
+
+			@Override
+			public String toString() { return "<priority queue>"; }
+		});
+		globals.define("BitSet", new LoxCallable() {
+			@Override
+			public int arity() { return 0; }
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				return new LoxBitSet();
+			}
+
+			@Override
+			public String toString() { return "<bit set>"; }
+		});
+		globals.define("parallelMap", new LoxCallable() {
+			@Override
+			public int arity() { return 2; } // array and function
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				if (!(arguments.get(0) instanceof LoxArray)) {
+					throw new RuntimeError(null, "Expected an array.");
+				}
+				return Parallel.map(interpreter, (LoxArray)arguments.get(0),
+						function(arguments.get(1), 1));
+			}
+
+			@Override
+			public String toString() { return "<native fn>"; }
+		});
+		globals.define("parallelReduce", new LoxCallable() {
+			@Override
+			public int arity() { return 3; } // array, function and identity
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				if (!(arguments.get(0) instanceof LoxArray)) {
+					throw new RuntimeError(null, "Expected an array.");
+				}
+				return Parallel.reduce(interpreter, (LoxArray)arguments.get(0),
+						function(arguments.get(1), 2), arguments.get(2));
+			}
+
+			@Override
+			public String toString() { return "<native fn>"; }
+		});
+		globals.define("parallelFor", new LoxCallable() {
+			@Override
+			public int arity() { return 2; } // count and function
+
+			@Override
+			public Object call(Interpreter interpreter,
+						List<Object> arguments) {
+				Double count = scaryCastNumber(arguments.get(0));
+				if (count == null || count < 0) {
+					throw new RuntimeError(null, "Count must be a non-negative number.");
+				}
+				Parallel.forEach(interpreter, count.intValue(), function(arguments.get(1), 1));
+				return null;
+			}
+
+			@Override
+			public String toString() { return "<native fn>"; }
+		});
 		globals.define("clear", new LoxCallable() {
 			@Override
 			public int arity() { return 0; }
@@ -102,12 +342,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	// accept a list of statements that represents
 	// a Lox script and execute them
 	void interpret(List<Stmt> statements) {
+		statements = flatten(statements);
 		try {
 			for (Stmt statement : statements) {
 				execute(statement);
 			}
 		} catch (RuntimeError error) {
 			Lox.runtimeError(error);
+		} catch (LazyBody.Failed error) {
+			// A function body didn't compile, the
+			// errors are reported already
 		}
 	}
 
@@ -150,6 +394,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return value;
 	}
 	@Override
+	public Object visitIndexExpr(Expr.Index expr) {
+		Object object = evaluate(expr.object);
+		Object index = evaluate(expr.index);
+		if (!Parallel.running() || !(object instanceof LoxInstance)) {
+			return element(expr.bracket, object, index);
+		}
+		// Other threads may be changing it, see Parallel
+		synchronized (object) {
+			return element(expr.bracket, object, index);
+		}
+	}
+	@Override
+	public Object visitIndexSetExpr(Expr.IndexSet expr) {
+		Object object = evaluate(expr.object);
+		Object index = evaluate(expr.index);
+		Object value = evaluate(expr.value);
+		if (!Parallel.running() || !(object instanceof LoxInstance)) {
+			setElement(expr.bracket, object, index, value);
+		} else {
+			synchronized (object) {
+				setElement(expr.bracket, object, index, value);
+			}
+		}
+		return value;
+	}
+	@Override
 	public Object visitSuperExpr(Expr.Super expr) {
 		int distance = locals.get(expr);
 
@@ -171,6 +441,62 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return lookUpVariable(expr.keyword, expr);
 	}
 
+	/*
+	 * Evaluate an expression from its flat form, see
+	 * FlatExpr and Flattener
+	 */
+	@Override
+	public Object visitFlatExpr(Expr.Flat expr) {
+		return flat(expr.code, expr.code.root);
+	}
+
+	/*
+	 * Helper method
+	 * Evaluate @node of @code and its children, the same
+	 * as the visit methods of the nodes it came from
+	 *
+	 * @code FlatExpr
+	 * @node int index of the node
+	 */
+	private Object flat(FlatExpr code, int node) {
+		int at = FlatExpr.at(node);
+		int a = code.nodes[at + 1];
+		int b = code.nodes[at + 2];
+		int c = code.nodes[at + 3];
+		switch (code.nodes[at]) {
+			case FlatExpr.LITERAL:
+				return code.constants[a];
+			case FlatExpr.LOCAL:
+				return environment.getAt(b, ((Token)code.constants[a]).lexeme);
+			case FlatExpr.GLOBAL:
+				return globals.get((Token)code.constants[a]);
+			case FlatExpr.UNARY:
+				return unary((Token)code.constants[a], flat(code, b));
+			case FlatExpr.NUMERIC_UNARY:
+				return -((Number)flat(code, b)).doubleValue();
+			case FlatExpr.BINARY: {
+				Object left = flat(code, b);
+				return binary((Token)code.constants[a], left, flat(code, c));
+			}
+			case FlatExpr.NUMERIC_BINARY: {
+				Object left = flat(code, b);
+				return numericBinary((Token)code.constants[a], left, flat(code, c));
+			}
+			case FlatExpr.LOGICAL: {
+				Object left = flat(code, b);
+				if (((Token)code.constants[a]).type == TokenType.OR) {
+					if (isTruthy(left)) return left;
+				} else {
+					if (!isTruthy(left)) return left;
+				}
+				return flat(code, c);
+			}
+		}
+
+		// unreachable
+		return null;
+	}
+
 	@Override
 	public Object visitGroupingExpr(Expr.Grouping expr) {
 		// Evaluate the nested expression
@@ -180,12 +506,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Object visitUnaryExpr(Expr.Unary expr) {
 		Object right = evaluate(expr.right);
+		if (numerics.contains(expr)) return -((Number)right).doubleValue();
+		return unary(expr.operator, right);
+	}
 
-		switch (expr.operator.type) {
+	/*
+	 * Helper method
+	 * Apply a unary @operator, shared with flat()
+	 *
+	 * @operator Token
+	 * @right Object the operand
+	 */
+	private Object unary(Token operator, Object right) {
+		switch (operator.type) {
 			case BANG:
 				return !isTruthy(right);
 			case MINUS:
-				checkNumberOperand(expr.operator, right);	
+				checkNumberOperand(operator, right);	
 				return -(double)scaryCastNumber(right);
 		}
 
@@ -229,6 +566,44 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 		throw new RuntimeError(operator, "Operands must be numbers");
 	}
+	/*
+	 * Helper method
+	 * Element type argument of the off-heap array natives
+	 */
+	private OffHeapArray.Type arrayType(Object name) {
+		OffHeapArray.Type type = name instanceof String ?
+			OffHeapArray.Type.of((String)name) : null;
+		if (type == null) {
+			throw new RuntimeError(null, "Array type must be 'f64' or 'u8'.");
+		}
+		return type;
+	}
+
+	/*
+	 * Helper method
+	 * Length argument of the off-heap array natives
+	 */
+	private long arrayLength(Object value) {
+		Double length = scaryCastNumber(value);
+		if (length == null || length < 0) {
+			throw new RuntimeError(null, "Array length must be a non-negative number.");
+		}
+		return length.longValue();
+	}
+
+	/*
+	 * Helper method
+	 * Function argument of a native that calls it with
+	 * @arity arguments
+	 */
+	private LoxCallable function(Object value, int arity) {
+		if (value instanceof LoxCallable && ((LoxCallable)value).arity() == arity) {
+			return (LoxCallable)value;
+		}
+		throw new RuntimeError(null, "Expected a function of " + arity +
+				       (arity == 1 ? " argument." : " arguments."));
+	}
+
 	/*
 	 * Cast to double from Integer or Double,
 	 * if none, then returns null
@@ -247,28 +622,49 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	public Object visitBinaryExpr(Expr.Binary expr) {
 		Object left = evaluate(expr.left);
 		Object right = evaluate(expr.right);
+		if (numerics.contains(expr)) return numericBinary(expr.operator, left, right);
+		if (profile != null) {
+			profile.observe(expr, left, right);
+			if (speculated.contains(expr) &&
+			    left instanceof Number && right instanceof Number) {
+				return numericBinary(expr.operator, left, right);
+			}
+		}
+
+		return binary(expr.operator, left, right);
+	}
 
+	/*
+	 * Helper method
+	 * Apply a binary @operator with all the operand
+	 * checks, shared with flat()
+	 *
+	 * @operator Token
+	 * @left Object
+	 * @right Object
+	 */
+	private Object binary(Token operator, Object left, Object right) {
 		// Maybe there is a pattern that makes this better...
 		List<Double> values;
-		switch (expr.operator.type) {
+		switch (operator.type) {
 			case GREATER:
-				values = checkNumberOperands(expr.operator, left, right);
+				values = checkNumberOperands(operator, left, right);
 				return (double)(values.get(0)) > (double)(values.get(1));
 			case GREATER_EQUAL:
-				values = checkNumberOperands(expr.operator, left, right);
+				values = checkNumberOperands(operator, left, right);
 				return (double)(values.get(0)) >= (double)(values.get(1));
 			case LESS:
-				values = checkNumberOperands(expr.operator, left, right);
+				values = checkNumberOperands(operator, left, right);
 				return (double)(values.get(0)) < (double)(values.get(1));
 			case LESS_EQUAL:
-				values = checkNumberOperands(expr.operator, left, right);
+				values = checkNumberOperands(operator, left, right);
 				return (double)(values.get(0)) <= (double)(values.get(1));
 			case BANG_EQUAL:
 				return !isEqual(left, right);
 			case EQUAL_EQUAL:
 				return isEqual(left, right);
 			case MINUS:
-				values = checkNumberOperands(expr.operator, left, right);
+				values = checkNumberOperands(operator, left, right);
 				return (double)(values.get(0)) - (double)(values.get(1));
 			case PLUS:
 				if (left instanceof String && right instanceof Number) {
@@ -280,25 +676,25 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 					if (text.endsWith(".0")) text = text.substring(0, text.length() -2);
 					return left + (String)right;
 				} else if (left instanceof Number && right instanceof Number) {
-					values = checkNumberOperands(expr.operator, left, right);
+					values = checkNumberOperands(operator, left, right);
 					return (double)(values.get(0)) + (double)(values.get(1));
 				} else if (left instanceof String && right instanceof String)  {
 					return (String)left + (String)right;
 				}
 				
-				throw new RuntimeError(expr.operator, "Operands must be numbers or strings.");
+				throw new RuntimeError(operator, "Operands must be numbers or strings.");
 			case SLASH:
-				values = checkNumberOperands(expr.operator, left, right);
-				if ((double)values.get(1) == 0) throw new RuntimeError(expr.operator, "Divide by zero");
+				values = checkNumberOperands(operator, left, right);
+				if ((double)values.get(1) == 0) throw new RuntimeError(operator, "Divide by zero");
 				
 				return (double)(values.get(0)) / (double)(values.get(1));
 			case MODULO:
-				values = checkNumberOperands(expr.operator, left, right);
-				if ((double)values.get(1) == 0) throw new RuntimeError(expr.operator, "Divide by zero");
+				values = checkNumberOperands(operator, left, right);
+				if ((double)values.get(1) == 0) throw new RuntimeError(operator, "Divide by zero");
 				
 				return (double)(values.get(0)) % (double)(values.get(1));
 			case STAR:
-				values = checkNumberOperands(expr.operator, left, right);
+				values = checkNumberOperands(operator, left, right);
 				return (double)(values.get(0)) * (double)(values.get(1));
 		}
 
@@ -306,6 +702,41 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	/*
+	 * Helper method
+	 * Specialized visitBinaryExpr() for operands that are
+	 * known to be numbers, no operand checks and no List
+	 * of the operands, the result is still boxed
+	 *
+	 * @operator Token
+	 * @left Object must be a number
+	 * @right Object must be a number
+	 */
+	private Object numericBinary(Token operator, Object left, Object right) {
+		double a = ((Number)left).doubleValue();
+		double b = ((Number)right).doubleValue();
+		switch (operator.type) {
+			case GREATER: return a > b;
+			case GREATER_EQUAL: return a >= b;
+			case LESS: return a < b;
+			case LESS_EQUAL: return a <= b;
+			case EQUAL_EQUAL: return a == b; // like isEqual()
+			case BANG_EQUAL: return a != b;
+			case MINUS: return a - b;
+			case PLUS: return a + b;
+			case STAR: return a * b;
+			case SLASH:
+				if (b == 0) throw new RuntimeError(operator, "Divide by zero");
+				return a / b;
+			case MODULO:
+				if (b == 0) throw new RuntimeError(operator, "Divide by zero");
+				return a % b;
+		}
+
+		// unreachable
+		return null;
+	}
+
 	@Override
 	public Object visitCallExpr(Expr.Call expr) {
 		Object callee = evaluate(expr.callee);
@@ -322,6 +753,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		}
 
 		LoxCallable function = (LoxCallable)callee;
+		if (profile != null) {
+			profile.observe(expr, function);
+			if (function instanceof LoxClass) {
+				function = profile.constructor(expr, (LoxClass)function);
+			}
+		}
 
 		// The Python approach, to throw a runtime error
 		// instead of auto-passing undefined to empty
@@ -332,12 +769,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 				arguments.size() + ".");
 		}
 
-		return function.call(this, arguments);
+		try {
+			return function.call(this, arguments);
+		} catch (RuntimeError error) {
+			// Errors raised by the callable itself (not by the
+			// code it runs) don't know where they were called from
+			if (error.token != null) throw error;
+			throw new RuntimeError(expr.paren, error.getMessage());
+		}
 	}
 
 	@Override
 	public Object visitGetExpr(Expr.Get expr) {
 		Object object = evaluate(expr.object);
+		if (profile != null) {
+			profile.observe(expr, object);
+			LoxFunction method = profile.method(expr, object);
+			if (method != null) return method.bind((LoxInstance)object);
+		}
 		if (object instanceof LoxInstance) {
 			// Loop up the correct property
 			return ((LoxInstance) object).get(expr.name);
@@ -346,6 +795,46 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		throw new RuntimeError(expr.name, "Only instances have properties.");
 	}
 
+	/*
+	 * Helper method
+	 * @object[@index], @bracket is where errors go
+	 */
+	private Object element(Token bracket, Object object, Object index) {
+		if (object instanceof LoxMap) return ((LoxMap)object).get(bracket, index);
+		return array(bracket, object).get(bracket, index(bracket, index));
+	}
+
+	/*
+	 * Helper method
+	 * @object[@index] = @value
+	 */
+	private void setElement(Token bracket, Object object, Object index, Object value) {
+		if (object instanceof LoxMap) {
+			((LoxMap)object).set(bracket, index, value);
+		} else {
+			array(bracket, object).set(bracket, index(bracket, index), value);
+		}
+	}
+
+	/*
+	 * Helper method
+	 * The array being indexed at @bracket
+	 */
+	private LoxIndexable array(Token bracket, Object object) {
+		if (object instanceof LoxIndexable) return (LoxIndexable)object;
+		throw new RuntimeError(bracket, "Only arrays and collections can be indexed.");
+	}
+
+	/*
+	 * Helper method
+	 * An index used at @bracket
+	 */
+	private double index(Token bracket, Object index) {
+		if (index instanceof Double) return (Double)index;
+		if (index instanceof Integer) return (Integer)index;
+		throw new RuntimeError(bracket, "Array index must be a number.");
+	}
+
 	/*
 	 * Helper method
 	 * Define logic for comparing 2 objects 
@@ -391,6 +880,56 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return object.toString();
 	}
 
+	/*
+	 * Helper method
+	 * Check a value against a type hint
+	 *
+	 * @where Token where to report the error, null if
+	 * 	 the caller knows better (see visitCallExpr())
+	 * @name Token the typed variable
+	 * @type String
+	 * @value Object
+	 *
+	 * @throw RuntimeError
+	 */
+	void checkType(Token where, Token name, String type, Object value) {
+		String actual = typeName(value);
+		if (type.equals(actual)) return;
+		throw new RuntimeError(where, "'" + name.lexeme + "' must be a " + type +
+				       " but got " + actual + ".");
+	}
+
+	/*
+	 * Helper method
+	 * Record the type hint of @name if it was just
+	 * declared as a global, a redeclaration without
+	 * one (var, fun or class) drops it
+	 *
+	 * @type Token or null if untyped
+	 */
+	private void hintGlobal(Token name, Token type) {
+		if (environment != globals) return;
+		if (type == null) globalTypes.remove(name.lexeme);
+		else globalTypes.put(name.lexeme, type.lexeme);
+	}
+
+	/*
+	 * Helper method
+	 * Name a value with the type names used
+	 * for type hints
+	 *
+	 * @value Object
+	 * @return String
+	 */
+	private String typeName(Object value) {
+		if (value == null) return "nil";
+		if (value instanceof Double || value instanceof Integer) return "num";
+		if (value instanceof String) return "str";
+		if (value instanceof Boolean) return "bool";
+		if (value instanceof LoxCallable) return "function";
+		return "instance";
+	}
+
 	/*
 	 * Helper method
 	 * To define what is truthy and what is falsey
@@ -441,6 +980,158 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		locals.put(expr, depth);
 	}
 
+	/*
+	 * Helper methods
+	 * Read back what the Resolver stored for @expr,
+	 * used to save a resolved program (see ProgramCache)
+	 */
+	Integer depth(Expr expr) {
+		return locals.get(expr);
+	}
+	boolean isSpecialized(Expr expr) {
+		return numerics.contains(expr);
+	}
+	String guardOf(Expr expr) {
+		return guards.get(expr);
+	}
+
+	/*
+	 * Helper methods
+	 * Keep the tables in step with the Flattener: the
+	 * nodes of a FlatExpr don't need their entries anymore
+	 * and a rebuilt node takes over the entries of the
+	 * node it replaces
+	 */
+	void forget(Expr expr) {
+		locals.remove(expr);
+		numerics.remove(expr);
+		guards.remove(expr);
+	}
+	void moved(Expr from, Expr to) {
+		Integer depth = locals.remove(from);
+		if (depth != null) locals.put(to, depth);
+		if (numerics.remove(from)) numerics.add(to);
+		String type = guards.remove(from);
+		if (type != null) guards.put(to, type);
+	}
+
+	/*
+	 * Turn the pure expressions of resolved @statements
+	 * into FlatExprs before they run, see Flattener
+	 *
+	 * Not with --profile: the type feedback is keyed by
+	 * the tree nodes and numbered in their order
+	 *
+	 * @return List<Stmt> the statements to run
+	 */
+	List<Stmt> flatten(List<Stmt> statements) {
+		if (profile != null) return statements;
+		return new Flattener(this).flatten(statements);
+	}
+
+	/*
+	 * Helper method
+	 * Mark an arithmetic/comparison @expr as only
+	 * seeing numbers, see numericBinary()
+	 */
+	void specialize(Expr expr) {
+		numerics.add(expr);
+	}
+
+	/*
+	 * Helper method
+	 * Start collecting type feedback into @profile
+	 */
+	void profile(TypeProfile profile) {
+		this.profile = profile;
+	}
+
+	/*
+	 * Another interpreter to run functions on another
+	 * thread (see Parallel), it has its own environment being
+	 * executed and shares everything else
+	 */
+	Interpreter fork() {
+		return new Interpreter(this);
+	}
+
+	private Interpreter(Interpreter parent) {
+		session = parent.session;
+		forked = true;
+		globals = parent.globals;
+		environment = globals;
+		locals = parent.locals;
+		numerics = parent.numerics;
+		guards = parent.guards;
+		globalTypes = parent.globalTypes;
+		profile = parent.profile;
+		speculated = parent.speculated;
+		moduleRoot = parent.moduleRoot;
+		modules = parent.modules;
+	}
+
+	/*
+	 * How many entries the tables of a session keep once
+	 * the code that is gone has been collected, see
+	 * Lox.runSession()
+	 *
+	 * The weak keys are cleared by the GC but only dropped
+	 * from the maps later, so this collects until the count
+	 * stops going down
+	 */
+	int collectResolved() {
+		int count = Integer.MAX_VALUE;
+		for (int i = 0; i < 20; i++) {
+			System.gc();
+			int now = locals.size() + numerics.size() + guards.size() + speculated.size();
+			if (now >= count) return now;
+			count = now;
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException error) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Whether forks can run at the same time: the tables
+	 * shared with them are only safe to read from several
+	 * threads if nothing adds to them while the program runs
+	 * (type feedback, lazy bodies being resolved) and reading
+	 * doesn't change them (the weak maps of a session)
+	 */
+	boolean concurrent() {
+		return !session && profile == null && !Lox.lazy;
+	}
+
+	/*
+	 * Helper method
+	 * Import modules relative to @dir
+	 */
+	void moduleRoot(Path dir) {
+		this.moduleRoot = dir;
+	}
+
+	/*
+	 * Helper method
+	 * Number a binary/get/call site for the type profile,
+	 * called by the Resolver in visiting order
+	 */
+	void site(Expr expr) {
+		if (profile == null) return;
+		if (profile.register(expr)) speculated.add(expr);
+	}
+
+	/*
+	 * Helper method
+	 * Check the value assigned by @expr is of @type
+	 */
+	void guard(Expr expr, String type) {
+		guards.put(expr, type);
+	}
+
 	/*
 	 * Helper method
 	 * Execute a block statement
@@ -495,13 +1186,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
 		// Evaluate current class
 		environment.define(stmt.name.lexeme, null);
+		hintGlobal(stmt.name, null);
 		
 		if (stmt.superclass != null) {
 			environment = new Environment(environment);
 			environment.define("super", superclass);
 		}
 
-		Map<String, LoxFunction> methods = new HashMap<>();
+		// Keyed by interned names, see Environment
+		Map<String, LoxFunction> methods = new IdentityHashMap<>();
 		for (Stmt.Function method : stmt.methods) {
 			LoxFunction function = new LoxFunction(method, environment,
 								method.name.lexeme.equals("init"));
@@ -530,8 +1223,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		if (stmt.initializer != null) {
 			value = evaluate(stmt.initializer);
 		}
+		if (stmt.type != null) checkType(stmt.name, stmt.name, stmt.type.lexeme, value);
 
 		environment.define(stmt.name.lexeme, value);
+		hintGlobal(stmt.name, stmt.type);
 		return null;
 	}
 
@@ -550,6 +1245,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 	@Override
 	public Object visitAssignExpr(Expr.Assign expr) {
 		Object value = evaluate(expr.value);
+		String type = guards.get(expr);
+		if (type != null) checkType(expr.name, expr.name, type, value);
 		// environment.assign(expr.name, value);
 		Integer distance = locals.get(expr);
 		if (distance != null) {
@@ -557,6 +1254,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 			// defined by the Resolver class
 			environment.assignAt(distance, expr.name, value);
 		} else {
+			if (!globalTypes.isEmpty()) {
+				type = globalTypes.get(expr.name.lexeme);
+				if (type != null) checkType(expr.name, expr.name, type, value);
+			}
 			globals.assign(expr.name, value);
 		}
 		return value;
@@ -596,6 +1297,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		// the closure
 		LoxFunction function = new LoxFunction(stmt, environment, false);
 		environment.define(stmt.name.lexeme, function);
+		hintGlobal(stmt.name, null);
 		return null;
 	}
 
@@ -609,9 +1311,47 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 		return null;
 	}
 
+	/*
+	 * Run a module the first time it's imported, its
+	 * globals become globals of the importing program
+	 *
+	 * Not from a fork: the module would define globals and
+	 * resolve into tables other threads are reading
+	 */
+	@Override
+	public Void visitImportStmt(Stmt.Import stmt) {
+		if (forked) {
+			throw new RuntimeError(stmt.keyword, "Can't import inside a parallel function.");
+		}
+		String name = (String)stmt.path.literal;
+		Path path = moduleRoot.resolve(name).toAbsolutePath().normalize();
+		// Added before it runs, so modules that import
+		// each other don't loop
+		if (!modules.add(path)) return null;
+
+		List<Stmt> statements;
+		try {
+			statements = Lox.compileModule(path);
+		} catch (IOException error) {
+			throw new RuntimeError(stmt.keyword, "Can't read module '" + name + "'.");
+		}
+		if (statements == null) {
+			throw new RuntimeError(stmt.keyword, "Module '" + name + "' has errors.");
+		}
+
+		executeBlock(flatten(statements), globals);
+		return null;
+	}
+
 	@Override 
 	public Void visitPrintStmt(Stmt.Print stmt) {
 		Object value = evaluate(stmt.expression);
+		if (Parallel.running() && value instanceof LoxInstance) {
+			synchronized (value) {
+				System.out.println(stringify(value));
+			}
+			return null;
+		}
 		System.out.println(stringify(value));
 		return null;
 	}
@@ -0,0 +1,89 @@
+package lox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/*
+ * The body of a function the Parser skipped over with
+ * --lazy, only its source is kept (braces included)
+ *
+ * The body is parsed, resolved and trimmed the first time
+ * anything looks at its statements, which is normally the
+ * first call to the function. Functions that never run
+ * never pay for it.
+ *
+ * Errors are reported the same way the eager front end
+ * would report them, but only once the body is reached.
+ * The run then stops with Failed.
+ */
+class LazyBody extends AbstractList<Stmt> {
+	/*
+	 * Thrown when the body doesn't parse or resolve,
+	 * the errors are already reported by then
+	 */
+	static class Failed extends RuntimeException {
+		Failed() {
+			super(null, null, false, false);
+		}
+	}
+
+	private final CharSequence source;
+	private final int line; // line of the opening brace
+	private final String file; // see ErrorReporter.file()
+	// Picks up where the enclosing Resolver left off, set
+	// when the Resolver reaches the function
+	private Resolver resolver = null;
+	private List<Stmt> statements = null;
+
+	LazyBody(CharSequence source, int line, String file) {
+		this.source = source;
+		this.line = line;
+		this.file = file;
+	}
+
+	/*
+	 * Called by the Resolver in place of resolving
+	 * the body
+	 */
+	void defer(Resolver resolver) {
+		this.resolver = resolver;
+	}
+
+	@Override
+	public Stmt get(int index) {
+		return statements().get(index);
+	}
+
+	@Override
+	public int size() {
+		return statements().size();
+	}
+
+	// ##################################################################
+	// Helpers
+
+	/*
+	 * Run the front end on the body the first time
+	 *
+	 * @return List<Stmt>
+	 */
+	private List<Stmt> statements() {
+		if (statements != null) return statements;
+
+		ErrorReporter errors = new ErrorReporter(file, false);
+		Parser parser = new Parser(new Scanner(source, line, errors), errors);
+		List<Stmt> body = parser.parseBody();
+		if (errors.hadError()) {
+			Lox.hadError = true;
+			throw new Failed(); // check for Parser error
+		}
+
+		resolver.resolveBody(body);
+		if (Lox.hadError) throw new Failed(); // check for Resolver error
+
+		body = new DeadCodeEliminator(resolver.unused()).eliminate(body);
+		statements = resolver.flatten(body);
+		resolver = null; // done with the scopes
+		return statements;
+	}
+}
@@ -3,9 +3,12 @@ package lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
@@ -13,52 +16,128 @@ public class Lox {
 	 * A gateway to the interpreting logics 
 	 * Is static so global variables stored by it
 	 * persists in REPL mode
+	 * The REPL swaps in a session Interpreter before
+	 * running anything
 	 */
-	private static final Interpreter interpreter = new Interpreter();
+	private static Interpreter interpreter = new Interpreter();
 	/* 
 	 * Flags to stop the interpreter when there is an error
 	 */
 	static boolean hadError = false;
 	static boolean hadRuntimeError = false;
+	/*
+	 * Where the Resolver reports errors, the Scanner and
+	 * Parser get their own ErrorReporter per source
+	 */
+	private static final ErrorReporter errors = new ErrorReporter();
+	/*
+	 * Print warnings (e.g unused functions) only
+	 * when asked with --warnings
+	 */
+	static boolean showWarnings = false;
+	/*
+	 * Collect type feedback with --profile, see TypeProfile
+	 */
+	static boolean profiling = false;
+	/*
+	 * Parse function bodies on their first call
+	 * with --lazy, see LazyBody
+	 */
+	static boolean lazy = false;
 
 	// For running tests on individual parts
 	private enum Component {
 		SCANNER,
 		PARSER,
-		EVALUATOR
+		EVALUATOR,
+		SESSION
 	}
 
 	/*
 	 * There are 2 ways to run a lox file
 	 * - 1: Pass in the path to the file and this will execute it
 	 * - 2: Pass in nothing and type the lox code one line at a time
+	 * A program split over several files is run by passing
+	 * all of them, in the order they should run
+	 * Flags can go anywhere among the files:
+	 * Pass --warnings to also report warnings
+	 * Pass --lazy to only parse the functions that are called
+	 * Pass --profile to collect (and reuse) type feedback, one file only
+	 * Pass --single [component] to run one part, one file only
 	 */
 	public static void main(String[] args) throws IOException {
-		if (args.length == 0) {
-			runPrompt();
-		} else if (args.length == 1) {
-			runFile(args[0], null);
-		} else if (args.length == 3 && args[1].equals("--single")) {
-			try {
-				Component onlyComponent = Component.valueOf(args[2].toUpperCase());
-				runFile(args[0], onlyComponent);
-			} catch (IllegalArgumentException e) {
-				System.out.println("Usage: Options for --single includes" +
-						   " 'scanner', 'parser', 'or 'evaluator'.");
-				System.exit(64); // standard UNIX exit code
+		List<String> paths = new ArrayList<>();
+		Component onlyComponent = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--warnings")) {
+				showWarnings = true;
+			} else if (args[i].equals("--profile")) {
+				profiling = true;
+			} else if (args[i].equals("--lazy")) {
+				lazy = true;
+			} else if (args[i].equals("--single") && i + 1 < args.length) {
+				try {
+					onlyComponent = Component.valueOf(args[++i].toUpperCase());
+				} catch (IllegalArgumentException e) {
+					System.out.println("Usage: Options for --single includes" +
+							   " 'scanner', 'parser', 'evaluator' or 'session'.");
+					System.exit(64); // standard UNIX exit code
+				}
+			} else if (args[i].startsWith("--")) {
+				usage();
+			} else {
+				paths.add(args[i]);
 			}
+		}
+
+		if (paths.isEmpty()) {
+			if (args.length != 0) usage();
+			runPrompt();
+		} else if (paths.size() == 1) {
+			runFile(paths.get(0), onlyComponent);
 		} else {
-			System.out.println("Usage: jlox [script] --single [flag]");
-			System.exit(64); // standard UNIX exit code
+			// Profiles and the single components go
+			// with the source of one file
+			if (profiling || onlyComponent != null) usage();
+			runFiles(paths);
 		}
 	}
 
+	private static void usage() {
+		System.out.println("Usage: jlox [script] [--warnings | --profile | --lazy | --single [flag]]");
+		System.out.println("       jlox [script...] [--warnings | --lazy]");
+		System.exit(64); // standard UNIX exit code
+	}
+
 	/*
 	 * To run a lox file
+	 * The file is memory-mapped and read as bytes,
+	 * see ByteSource
 	 */
 	private static void runFile(String path, Component onlyComponent) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		runner(new String(bytes, Charset.defaultCharset()), onlyComponent);
+		// Lexed straight from the mapped file, no
+		// decoded copy of the whole source
+		ByteSource source = ByteSource.map(Paths.get(path));
+
+		// Feedback must be in place before the Resolver
+		// numbers the sites
+		TypeProfile profile = null;
+		Path profilePath = Paths.get(path + ".profile");
+		if (profiling) {
+			profile = new TypeProfile(hash(source));
+			profile.load(profilePath);
+			interpreter.profile(profile);
+		}
+
+		interpreter.moduleRoot(Paths.get(path).toAbsolutePath().getParent());
+
+		if (onlyComponent == null && useCache()) {
+			runCached(source, Paths.get(path + "c"));
+		} else {
+			runner(source, onlyComponent);
+		}
+
+		if (profile != null && !hadError) profile.save(profilePath);
 
 		// Some etiquette when the interpreter quits
 		// with and error
@@ -66,11 +145,38 @@ public class Lox {
 		if (hadRuntimeError) System.exit(70);
 	}
 	
+	/*
+	 * To run a lox program made of several files
+	 * The files are parsed in parallel, see ProgramLoader
+	 */
+	private static void runFiles(List<String> paths) throws IOException {
+		List<Path> files = new ArrayList<>();
+		for (String path : paths) {
+			files.add(Paths.get(path));
+		}
+		interpreter.moduleRoot(files.get(0).toAbsolutePath().getParent());
+
+		List<Stmt> statements = ProgramLoader.parse(files, lazy);
+		if (statements == null) {
+			hadError = true;
+		} else {
+			statements = resolve(statements);
+			if (statements != null) interpreter.interpret(statements);
+		}
+
+		if (hadError) System.exit(65);
+		if (hadRuntimeError) System.exit(70);
+	}
+
 	/*
 	 * Read a line, Evaluate it, Print the result, then Loop (REPL)
 	 * To create an interactive prompt
 	 */
 	private static void runPrompt() throws IOException {
+		// Sessions stay open for a long time, forget what was
+		// resolved for code that can't be reached anymore
+		interpreter = new Interpreter(true);
+
 		InputStreamReader input = new InputStreamReader(System.in);
 		BufferedReader reader = new BufferedReader(input);
 		
@@ -87,69 +193,189 @@ public class Lox {
 		}
 	}
 
-	private static void runner(String source, Component onlyComponent) {
+	private static void runner(CharSequence source, Component onlyComponent) {
 		if (onlyComponent == null) run(source);
 		else if (onlyComponent == Component.SCANNER) runScanner(source);
 		else if (onlyComponent == Component.PARSER) runParser(source);
 		else if (onlyComponent == Component.EVALUATOR) runExprInterpreter(source);
+		else if (onlyComponent == Component.SESSION) runSession(source);
 	}
 
 	/*
 	 * Main parser function
 	 */
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-		Parser parser = new Parser(tokens);
+	private static void run(CharSequence source) {
+		List<Stmt> statements = compile(source);
+		if (statements == null) return;
+
+		interpreter.interpret(statements);
+	}
+
+	/*
+	 * Like run(), but skip the front end if the resolved
+	 * program is in the cache at @cachePath (see ProgramCache)
+	 * and fill the cache if it isn't
+	 */
+	private static void runCached(CharSequence source, Path cachePath) {
+		List<Stmt> statements = compileCached(source, cachePath);
+		if (statements == null) return;
+
+		interpreter.interpret(statements);
+	}
+
+	/*
+	 * Front end for a module, see Interpreter.visitImportStmt()
+	 * Modules go through the cache just like scripts
+	 *
+	 * @return List<Stmt> or null if there was an error
+	 */
+	static List<Stmt> compileModule(Path path) throws IOException {
+		ByteSource source = ByteSource.map(path);
+		if (!useCache()) return compile(source);
+		return compileCached(source, Paths.get(path + "c"));
+	}
+
+	/*
+	 * compile(), unless the cache at @cachePath already
+	 * has the result
+	 *
+	 * @return List<Stmt> or null if there was an error
+	 */
+	private static List<Stmt> compileCached(CharSequence source, Path cachePath) {
+		String hash = hash(source);
+		List<Stmt> statements = ProgramCache.load(cachePath, hash, interpreter);
+		if (statements == null) {
+			statements = compile(source);
+			if (statements == null) return null;
+
+			ProgramCache.save(cachePath, hash, statements, interpreter);
+		}
+		return statements;
+	}
+
+	/*
+	 * The cache holds the output of the whole front end,
+	 * warnings and profile sites need it to run and
+	 * writing it would parse every lazy body
+	 */
+	private static boolean useCache() {
+		return !profiling && !showWarnings && !lazy;
+	}
+
+	/*
+	 * The front end, scan, parse, resolve and trim the source
+	 *
+	 * @return List<Stmt> or null if there was an error
+	 */
+	private static List<Stmt> compile(CharSequence source) {
+		ErrorReporter errors = new ErrorReporter();
+		Scanner scanner = new Scanner(source, errors);
+		Parser parser = new Parser(scanner, errors, lazy);
 		List<Stmt> statements = parser.parse();
 
-		if (hadError) return; // check for Parser error
+		if (errors.hadError()) hadError = true;
+		if (hadError) return null; // check for Parser error
 
+		return resolve(statements);
+	}
+
+	/*
+	 * The rest of the front end, once parsed
+	 *
+	 * @return List<Stmt> or null if there was an error
+	 */
+	private static List<Stmt> resolve(List<Stmt> statements) {
 		Resolver resolver = new Resolver(interpreter);
 		resolver.resolve(statements);
 
-		if (hadError) return; // check for Resolver error
+		if (hadError) return null; // check for Resolver error
 
-		interpreter.interpret(statements);
+		return new DeadCodeEliminator(resolver.unused()).eliminate(statements);
 	}
 
 	/*
 	 * Helper method, each run a part of 
 	 * the interpreter
 	 */
-	private static void runExprInterpreter(String source) {	
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-		Parser parser = new Parser(tokens);
+	private static void runExprInterpreter(CharSequence source) {	
+		ErrorReporter errors = new ErrorReporter();
+		Scanner scanner = new Scanner(source, errors);
+		Parser parser = new Parser(scanner, errors);
 		Expr expression = parser.parseExpression();
 
+		if (errors.hadError()) hadError = true;
 		if (hadError) return;
 
 		interpreter.interpretExpression(expression);
 	}
-	private static void runParser(String source) {	
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens();
-		Parser parser = new Parser(tokens);
+	private static void runParser(CharSequence source) {	
+		ErrorReporter errors = new ErrorReporter();
+		Scanner scanner = new Scanner(source, errors);
+		Parser parser = new Parser(scanner, errors);
 		Expr expression = parser.parseExpression();
 
+		if (errors.hadError()) hadError = true;
 		if (hadError) return;
 
 		System.out.println(new AstPrinter().print(expression));
 	}
-	private static void runScanner(String source) {
-		Scanner scanner = new Scanner(source);
+	/*
+	 * Run every line of @source as its own input to a
+	 * REPL session, with a resolved() native telling how
+	 * many entries the session's tables keep after a GC
+	 */
+	private static void runSession(CharSequence source) {
+		interpreter = new Interpreter(true);
+		interpreter.globals.define("resolved", new LoxCallable() {
+			@Override
+			public int arity() { return 0; }
+
+			@Override
+			public Object call(Interpreter interpreter, List<Object> arguments) {
+				return (double) interpreter.collectResolved();
+			}
+
+			@Override
+			public String toString() { return "<native fn>"; }
+		});
+
+		for (String line : source.toString().split("\n")) {
+			run(line);
+			hadError = false;
+		}
+	}
+	private static void runScanner(CharSequence source) {
+		ErrorReporter errors = new ErrorReporter();
+		Scanner scanner = new Scanner(source, errors);
 		List<Token> tokens = scanner.scanTokens();
+		if (errors.hadError()) hadError = true;
 		for (Token token : tokens) {
 			System.out.println(token);
 		}		
 	}
 	
 	/*
-	 * Call to error reporter
+	 * SHA-256 of the source in hex, hashes the mapped
+	 * bytes directly when reading from a file
 	 */
-	static void error(int line, String message) {
-		report(line, "", message);
+	static String hash(CharSequence source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			if (source instanceof ByteSource) {
+				digest.update(((ByteSource)source).bytes());
+			} else {
+				digest.update(source.toString().getBytes(StandardCharsets.UTF_8));
+			}
+
+			StringBuilder builder = new StringBuilder();
+			for (byte b : digest.digest()) {
+				builder.append(String.format("%02x", b));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM ships SHA-256
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/*
@@ -161,21 +387,20 @@ public class Lox {
 	}
 
 	/*
-	 * Overload error for parser error
+	 * Error reporter for the Resolver
 	 */
 	static void error(Token token, String message) {
-		if (token.type == TokenType.EOF) {
-			report(token.line, " at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
-		}
+		errors.error(token, message);
+		hadError = true;
 	}
 
 	/*
-	 * Error reporter
+	 * Warning reporter, unlike errors warnings
+	 * don't stop the interpreter
 	 */
-	private static void report(int line, String where, String message) {
-		System.err.println("[line " + line + "] Error" + where + ": " + message);
-		hadError = true;
+	static void warning(Token token, String message) {
+		if (!showWarnings) return;
+		System.err.println("[line " + token.line + "] Warning at '" +
+				   token.lexeme + "': " + message);
 	}
 }	
@@ -1,6 +1,6 @@
 package lox;
 
-import java.util.List;
+import java.util.Arrays;
 
 // This class is weird because it can't be the same as user
 // defined LoxClass. The latter is built using ast with Stmt
@@ -8,56 +8,542 @@ import java.util.List;
 //
 // This class tries to do just that without
 // ast
-class LoxArray extends LoxInstance {
-	private final Object[] elements;
+//
+// Arrays grow: the storage has room for more than @size
+// elements and doubles when it runs out, so pushing
+// n elements one by one copies O(n) elements in total
+//
+// Storage strategy: as long as every element is a number
+// (or nil) the elements are kept unboxed in @numbers, the
+// first other value moves them all to @elements for good.
+// Float64Array is an array that only ever takes numbers.
+class LoxArray extends LoxInstance implements LoxIndexable {
+	// nil in @numbers, a NaN that arithmetic never produces
+	private static final long HOLE = 0x7ff80000deadbeefL;
+	private static final double NIL = Double.longBitsToDouble(HOLE);
+	// The longest Java array the JVM hands out
+	static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
 
-	LoxCallable getElement;
-	LoxCallable setElement;
+	// Exactly one of the two is in use
+	private double[] numbers = null;
+	private Object[] elements = null;
+	private int size;
+	// Float64Array, new elements are 0 instead of nil
+	private final boolean numeric;
+
+	// Methods looked up so far, see NativeMethods
+	private LoxCallable[] methods = null;
 
 	LoxArray(int size) {
 		super(null);
-		// Would this needs to check for OutOfMemoryError?
-		elements = new Object[size];
-
-		initCallables();
+		try {
+			numbers = new double[size];
+		} catch (OutOfMemoryError error) {
+			throw outOfMemory(size);
+		}
+		Arrays.fill(numbers, NIL);
+		this.size = size;
+		this.numeric = false;
 	}
 
 	LoxArray(Object first) {
 		super(null);
-		elements = new Object[1];
-		elements[0] = first;
-		initCallables();
+		if (first instanceof Double || first instanceof Integer) {
+			numbers = new double[] { toDouble(first) };
+		} else {
+			elements = new Object[] { first };
+		}
+		size = 1;
+		this.numeric = false;
+	}
+
+	/*
+	 * For slice() and float64(), takes the storage as is
+	 */
+	private LoxArray(double[] numbers, Object[] elements, boolean numeric) {
+		super(null);
+		this.numbers = numbers;
+		this.elements = elements;
+		this.size = numbers != null ? numbers.length : elements.length;
+		this.numeric = numeric;
+	}
+
+	/*
+	 * A Float64Array of @size zeros
+	 *
+	 * @return LoxArray
+	 */
+	static LoxArray float64(int size) {
+		try {
+			return new LoxArray(new double[size], null, true);
+		} catch (OutOfMemoryError error) {
+			throw outOfMemory(size);
+		}
+	}
+
+	/*
+	 * Helper method
+	 * A length given to Array(), Float64Array() or resize()
+	 *
+	 * @return int @length
+	 */
+	static int checkLength(Double length) {
+		if (length == null || length < 0) {
+			throw new RuntimeError(null, "Array length must be a non-negative number.");
+		}
+		if (length > MAX_LENGTH) {
+			throw new RuntimeError(null, "Array length can't be more than " + MAX_LENGTH + ".");
+		}
+		return length.intValue();
+	}
+
+	int length() {
+		return size;
+	}
+
+	/*
+	 * Element access for arr[i], see Interpreter.visitIndexExpr()
+	 * Out of bounds errors are reported at @bracket
+	 */
+	@Override
+	public Object get(Token bracket, double index) {
+		return at(checkIndex(bracket, index, size));
+	}
+
+	@Override
+	public void set(Token bracket, double index, Object value) {
+		put(bracket, checkIndex(bracket, index, size), value);
+	}
+
+	/*
+	 * See NativeMethods
+	 */
+	private static final NativeMethods<LoxArray> METHODS = new NativeMethods<LoxArray>()
+		.add("get", 1, (array, interpreter, arguments) -> {
+			Double index = array.scaryCastNumber(arguments.get(0));
+			return index == null ? null : array.at(checkIndex(null, index, array.size));
+		})
+		.add("set", 2, (array, interpreter, arguments) -> {
+			Double index = array.scaryCastNumber(arguments.get(0));
+			if (index == null) return null;
+
+			Object value = arguments.get(1);
+			array.put(null, checkIndex(null, index, array.size), value);
+			return value;
+		})
+		.add("push", 1, (array, interpreter, arguments) -> {
+			array.push(arguments.get(0));
+			return (double) array.size;
+		})
+		.add("pop", 0, (array, interpreter, arguments) -> {
+			if (array.size == 0) throw new RuntimeError(null, "Can't pop from an empty array.");
+			return array.remove(array.size - 1);
+		})
+		.add("insert", 2, (array, interpreter, arguments) -> {
+			array.insert(checkIndex(null, array.index(arguments.get(0)), array.size + 1),
+				     arguments.get(1));
+			return null;
+		})
+		.add("remove", 1, (array, interpreter, arguments) ->
+			array.remove(checkIndex(null, array.index(arguments.get(0)), array.size)))
+		.add("slice", 2, (array, interpreter, arguments) -> {
+			int to = checkIndex(null, array.index(arguments.get(1)), array.size + 1);
+			int from = checkIndex(null, array.index(arguments.get(0)), to + 1);
+			return array.slice(from, to);
+		})
+		.add("resize", 1, (array, interpreter, arguments) -> {
+			array.resize(arguments.get(0));
+			return null;
+		})
+		.add("fill", 1, (array, interpreter, arguments) -> {
+			array.fill(arguments.get(0));
+			return null;
+		})
+		.add("copyInto", 2, (array, interpreter, arguments) -> {
+			LoxArray target = array(arguments.get(0));
+			array.copyInto(target, checkIndex(null, array.index(arguments.get(1)),
+							  target.size - array.size + 1));
+			return null;
+		})
+		.add("reverse", 0, (array, interpreter, arguments) -> {
+			array.reverse();
+			return null;
+		})
+		.add("sort", 1, (array, interpreter, arguments) -> {
+			array.sort(interpreter, arguments.get(0));
+			return null;
+		})
+		.add("binarySearch", 1, (array, interpreter, arguments) ->
+			(double) array.binarySearch(arguments.get(0)))
+		.add("indexOf", 1, (array, interpreter, arguments) ->
+			(double) array.indexOf(arguments.get(0)))
+		.add("add", 1, (array, interpreter, arguments) -> {
+			Vectors.add(array.vector(), array.vector(arguments.get(0)), array.size);
+			return null;
+		})
+		.add("mul", 1, (array, interpreter, arguments) -> {
+			Vectors.mul(array.vector(), array.vector(arguments.get(0)), array.size);
+			return null;
+		})
+		.add("fma", 2, (array, interpreter, arguments) -> {
+			Vectors.fma(array.vector(), array.vector(arguments.get(0)),
+				    array.vector(arguments.get(1)), array.size);
+			return null;
+		})
+		.add("scale", 1, (array, interpreter, arguments) -> {
+			double[] vector = array.vector();
+			Double factor = array.scaryCastNumber(arguments.get(0));
+			if (factor == null) throw new RuntimeError(null, "Scale factor must be a number.");
+			Vectors.scale(vector, factor, array.size);
+			return null;
+		})
+		.add("dot", 1, (array, interpreter, arguments) ->
+			Vectors.dot(array.vector(), array.vector(arguments.get(0)), array.size))
+		.add("sum", 0, (array, interpreter, arguments) ->
+			Vectors.sum(array.vector(), array.size))
+		.add("min", 0, (array, interpreter, arguments) ->
+			array.size == 0 ? null : (Object)Vectors.min(array.vector(), array.size))
+		.add("max", 0, (array, interpreter, arguments) ->
+			array.size == 0 ? null : (Object)Vectors.max(array.vector(), array.size));
+
+	// ##################################################################
+	// Storage
+
+	/*
+	 * The element at @index, boxed
+	 */
+	private Object at(int index) {
+		if (elements != null) return elements[index];
+
+		double value = numbers[index];
+		if (Double.doubleToRawLongBits(value) == HOLE) return null;
+		return value;
+	}
+
+	/*
+	 * Store @value at @index, switching to boxed
+	 * storage if it isn't a number
+	 * Nothing changes if it throws
+	 */
+	private void put(Token where, int index, Object value) {
+		checkElement(where, value);
+
+		if (elements != null) {
+			elements[index] = value;
+		} else if (value instanceof Double || value instanceof Integer) {
+			numbers[index] = toDouble(value);
+		} else if (value == null) {
+			numbers[index] = NIL;
+		} else {
+			generalize();
+			elements[index] = value;
+		}
+	}
+
+	/*
+	 * Float64Arrays only take numbers
+	 */
+	private void checkElement(Token where, Object value) {
+		if (numeric && !(value instanceof Double || value instanceof Integer)) {
+			throw new RuntimeError(where, "Float64Array elements must be numbers.");
+		}
+	}
+
+	/*
+	 * Move to boxed storage, for good
+	 */
+	private void generalize() {
+		Object[] boxed = new Object[numbers.length];
+		for (int i = 0; i < size; i++) {
+			boxed[i] = at(i);
+		}
+		elements = boxed;
+		numbers = null;
+	}
+
+	private Object storage() {
+		return elements != null ? elements : numbers;
+	}
+
+	private int capacity() {
+		return elements != null ? elements.length : numbers.length;
+	}
+
+	/*
+	 * Make room for at least @capacity elements, at
+	 * least doubling the room there is
+	 */
+	private void grow(int capacity) {
+		if (capacity > MAX_LENGTH) {
+			throw new RuntimeError(null, "Array length can't be more than " + MAX_LENGTH + ".");
+		}
+		// Doubling stops at the limit instead of overflowing
+		int doubled = (int)Math.min((long)capacity() * 2, MAX_LENGTH);
+		int newCapacity = Math.max(Math.max(capacity, doubled), 4);
+		try {
+			if (elements != null) {
+				elements = Arrays.copyOf(elements, newCapacity);
+			} else {
+				numbers = Arrays.copyOf(numbers, newCapacity);
+			}
+		} catch (OutOfMemoryError error) {
+			throw outOfMemory(newCapacity);
+		}
+	}
+
+	/*
+	 * Reset the elements from @from up to @to, to 0
+	 * in a Float64Array and nil in any other array
+	 */
+	private void clear(int from, int to) {
+		if (elements != null) {
+			Arrays.fill(elements, from, to, null);
+		} else {
+			Arrays.fill(numbers, from, to, numeric ? 0.0 : NIL);
+		}
+	}
+
+	// ##################################################################
+	// Helpers
+
+	private void push(Object value) {
+		if (size == capacity()) grow(size + 1);
+		put(null, size, value);
+		size++;
+	}
+
+	private void insert(int index, Object value) {
+		checkElement(null, value); // before anything is moved
+
+		if (size == capacity()) grow(size + 1);
+		System.arraycopy(storage(), index, storage(), index + 1, size - index);
+		size++;
+		put(null, index, value);
+	}
+
+	private Object remove(int index) {
+		Object removed = at(index);
+		System.arraycopy(storage(), index + 1, storage(), index, size - index - 1);
+		size--;
+		clear(size, size + 1); // let it be collected
+		return removed;
+	}
+
+	private LoxArray slice(int from, int to) {
+		if (elements != null) {
+			return new LoxArray(null, Arrays.copyOfRange(elements, from, to), false);
+		}
+		return new LoxArray(Arrays.copyOfRange(numbers, from, to), null, numeric);
 	}
 
-	private void initCallables() {	
-		getElement = new LoxCallable() {
-			@Override
-			public int arity() {
-				return 1;
+	private void resize(Object length) {
+		int newSize = checkLength(scaryCastNumber(length));
+		if (newSize > capacity()) grow(newSize);
+		// Shrinking drops the elements past the new end,
+		// growing again later must find them cleared
+		clear(Math.min(size, newSize), Math.max(size, newSize));
+		size = newSize;
+	}
+
+	// ##################################################################
+	// Bulk operations, one call for the whole array
+
+	private void fill(Object value) {
+		if (size == 0) return;
+		put(null, 0, value); // switches storage if it must
+		if (elements != null) Arrays.fill(elements, 0, size, value);
+		else Arrays.fill(numbers, 0, size, numbers[0]);
+	}
+
+	/*
+	 * Copy all the elements into @target, starting at @at
+	 * Copying an array into itself works
+	 */
+	private void copyInto(LoxArray target, int at) {
+		// The copy below takes the nil holes along
+		if (target.numeric && numbers != null && !allNumbers()) {
+			target.checkElement(null, null);
+		}
+		if (target.numbers != null && elements != null) {
+			// Nothing is copied if one of them doesn't fit
+			for (int i = 0; i < size; i++) target.checkElement(null, elements[i]);
+			boolean unboxed = true;
+			for (int i = 0; i < size && unboxed; i++) {
+				Object element = elements[i];
+				unboxed = element == null || element instanceof Double || element instanceof Integer;
 			}
-			@Override
-			public Object call(Interpreter interpreter,
-						List<Object> arguments) {
-				Double index = scaryCastNumber(arguments.get(0));
-				return index == null ? null : elements[index.intValue()];
+			if (!unboxed) target.generalize();
+		}
+
+		if (target.elements != null && numbers != null) {
+			for (int i = 0; i < size; i++) target.elements[at + i] = at(i);
+		} else if (target.numbers != null && elements != null) {
+			for (int i = 0; i < size; i++) target.put(null, at + i, elements[i]);
+		} else {
+			System.arraycopy(storage(), 0, target.storage(), at, size);
+		}
+	}
+
+	private void reverse() {
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			if (elements != null) {
+				Object element = elements[i];
+				elements[i] = elements[j];
+				elements[j] = element;
+			} else {
+				double number = numbers[i];
+				numbers[i] = numbers[j];
+				numbers[j] = number;
 			}
-		};
-		setElement = new LoxCallable() {
-			@Override
-			public int arity() {
-				return 2;
+		}
+	}
+
+	/*
+	 * Sort in place, numbers go up without a
+	 * comparator (nil), see PriorityQueue() for what
+	 * a comparator returns
+	 */
+	private void sort(Interpreter interpreter, Object comparator) {
+		if (comparator == null) {
+			if (!allNumbers()) {
+				throw new RuntimeError(null, "Only arrays of numbers can be sorted without a comparator.");
 			}
-			@Override
-			public Object call(Interpreter interpreter,
-						List<Object> arguments) {
-				Double index = scaryCastNumber(arguments.get(0));
+			Arrays.sort(numbers, 0, size);
+			return;
+		}
+		if (!(comparator instanceof LoxCallable) || ((LoxCallable)comparator).arity() != 2) {
+			throw new RuntimeError(null, "Comparator must be a function of 2 arguments or nil.");
+		}
+
+		LoxCallable function = (LoxCallable)comparator;
+		Object[] sorted = new Object[size];
+		for (int i = 0; i < size; i++) sorted[i] = at(i);
+		try {
+			Arrays.sort(sorted, (a, b) -> {
+				Object result = function.call(interpreter, Arrays.asList(a, b));
+				if (result instanceof Double) return Double.compare((Double)result, 0);
+				if (result instanceof Integer) return Integer.compare((Integer)result, 0);
+				throw new RuntimeError(null, "Comparator must return a number.");
+			});
+		} catch (IllegalArgumentException error) {
+			throw new RuntimeError(null, "Comparator doesn't give a consistent order.");
+		}
+		// Only written back once it's sorted, the
+		// comparator may have thrown half way
+		for (int i = 0; i < size; i++) put(null, i, sorted[i]);
+	}
+
+	/*
+	 * Look for @value in an array of numbers sorted
+	 * from small to big
+	 *
+	 * @return int its index, or -1
+	 */
+	private int binarySearch(Object value) {
+		if (!allNumbers()) {
+			throw new RuntimeError(null, "Only arrays of numbers can be searched.");
+		}
+		if (!(value instanceof Double || value instanceof Integer)) return -1;
 
-				if (index == null) return index;
+		int index = Arrays.binarySearch(numbers, 0, size, toDouble(value));
+		return index < 0 ? -1 : index;
+	}
+
+	/*
+	 * @return int index of the first element equal to
+	 * @value (the way == is), or -1
+	 */
+	private int indexOf(Object value) {
+		if (elements == null && (value instanceof Double || value instanceof Integer)) {
+			double number = toDouble(value);
+			for (int i = 0; i < size; i++) {
+				if (numbers[i] == number) return i;
+			}
+			return -1;
+		}
 
-				Object value = arguments.get(1);
-				return elements[index.intValue()] = value;
+		boolean number = value instanceof Double || value instanceof Integer;
+		for (int i = 0; i < size; i++) {
+			Object element = at(i);
+			if (number && (element instanceof Double || element instanceof Integer)) {
+				if (toDouble(element) == toDouble(value)) return i;
+			} else if (element == null ? value == null : element.equals(value)) {
+				return i;
 			}
-		};
+		}
+		return -1;
+	}
+
+	/*
+	 * Helper method
+	 * No nil and nothing but numbers, so @numbers
+	 * can be used as is
+	 */
+	private boolean allNumbers() {
+		if (elements != null) return false;
+		if (numeric) return true; // never has nil
+		for (int i = 0; i < size; i++) {
+			if (Double.doubleToRawLongBits(numbers[i]) == HOLE) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Helper method
+	 * The storage of an array of numbers, for the
+	 * vector methods, see Vectors
+	 */
+	private double[] vector() {
+		if (!allNumbers()) {
+			throw new RuntimeError(null, "Vector operations need arrays of numbers.");
+		}
+		return numbers;
+	}
+
+	/*
+	 * Helper method
+	 * The other array of a vector method
+	 */
+	private double[] vector(Object other) {
+		LoxArray array = array(other);
+		if (array.size != size) throw new RuntimeError(null, "Arrays must have the same length.");
+		return array.vector();
+	}
+
+	private static LoxArray array(Object value) {
+		if (value instanceof LoxArray) return (LoxArray)value;
+		throw new RuntimeError(null, "Expected an array.");
+	}
+
+	private static RuntimeError outOfMemory(long length) {
+		return new RuntimeError(null, "Not enough memory for an array of " + length + " elements.");
+	}
+
+	private int index(Object value) {
+		Double index = scaryCastNumber(value);
+		if (index == null) throw new RuntimeError(null, "Array index must be a number.");
+		return index.intValue();
+	}
+
+	/*
+	 * Helper method
+	 * See LoxIndexable.checkIndex()
+	 *
+	 * @return int @index if it's in bounds
+	 */
+	private static int checkIndex(Token where, double index, int bound) {
+		return (int) LoxIndexable.checkIndex(where, index, bound, "Array");
+	}
+
+	/*
+	 * Helper method
+	 * Numbers as stored in @numbers, a NaN result
+	 * is stored as the usual NaN so it can't be
+	 * mistaken for nil
+	 */
+	private static double toDouble(Object value) {
+		double number = value instanceof Double ? (Double)value : (Integer)value;
+		return Double.isNaN(number) ? Double.NaN : number;
 	}
 
 	private Double scaryCastNumber(Object value) {
@@ -68,15 +554,8 @@ class LoxArray extends LoxInstance {
 
 	@Override
 	Object get(Token name) {
-		if (name.lexeme.equals("get")) {
-			return getElement;
-		} else if (name.lexeme.equals("set")) {
-			return setElement;
-		} else if (name.lexeme.equals("length")) {
-			return (double) elements.length;
-		}
-
-		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+		if (methods == null) methods = METHODS.table();
+		return METHODS.get(this, methods, name, size);
 	}
 
 	@Override
@@ -91,19 +570,24 @@ class LoxArray extends LoxInstance {
 	public String toString() {
 		StringBuffer buffer = new StringBuffer(); // a mutable string
 		buffer.append("[");
-		for (int i = 0; i < elements.length; i++) {
-			if (elements[i] == null) buffer.append("nil");
-			else if (elements[i] instanceof Double || elements[i] instanceof Integer) {
-				String text = elements[i].toString();
-				if (text.endsWith(".0")) {
-					text = text.substring(0, text.length() - 2);
-				}
-				buffer.append(text);
-			} else buffer.append(elements[i]);
-			
-			if (i != elements.length - 1) buffer.append(", ");
+		for (int i = 0; i < size; i++) {
+			buffer.append(text(at(i)));
+			if (i != size - 1) buffer.append(", ");
 		}
 		buffer.append("]");
 		return buffer.toString();
 	}
+
+	/*
+	 * Helper method
+	 * An element as the collections print it
+	 */
+	static String text(Object element) {
+		if (element == null) return "nil";
+		String text = element.toString();
+		if ((element instanceof Double || element instanceof Integer) && text.endsWith(".0")) {
+			text = text.substring(0, text.length() - 2);
+		}
+		return text;
+	}
 }
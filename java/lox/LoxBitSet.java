@@ -0,0 +1,106 @@
+package lox;
+
+import java.util.BitSet;
+
+/*
+ * A set of non-negative integers, one bit each, made by
+ * the BitSet() native
+ *
+ * set[i] is true or false, setting a bit past the end
+ * grows the set. intersect/union/difference combine two
+ * sets a word at a time instead of a bit at a time.
+ */
+class LoxBitSet extends LoxInstance implements LoxIndexable {
+	private final BitSet bits = new BitSet();
+	// Methods looked up so far, see NativeMethods
+	private LoxCallable[] methods = null;
+
+	LoxBitSet() {
+		super(null);
+	}
+
+	@Override
+	public Object get(Token bracket, double index) {
+		return bits.get(checkIndex(bracket, index));
+	}
+
+	@Override
+	public void set(Token bracket, double index, Object value) {
+		int bit = checkIndex(bracket, index);
+		if (!(value instanceof Boolean)) {
+			throw new RuntimeError(bracket, "Bits must be true or false.");
+		}
+		bits.set(bit, (Boolean)value);
+	}
+
+	/*
+	 * See NativeMethods
+	 */
+	private static final NativeMethods<LoxBitSet> METHODS = new NativeMethods<LoxBitSet>()
+		.add("add", 1, (set, interpreter, arguments) -> {
+			set.bits.set(index(arguments.get(0)));
+			return null;
+		})
+		.add("remove", 1, (set, interpreter, arguments) -> {
+			set.bits.clear(index(arguments.get(0)));
+			return null;
+		})
+		.add("flip", 1, (set, interpreter, arguments) -> {
+			set.bits.flip(index(arguments.get(0)));
+			return null;
+		})
+		.add("count", 0, (set, interpreter, arguments) -> (double) set.bits.cardinality())
+		// -1 when there are no more
+		.add("next", 1, (set, interpreter, arguments) ->
+			(double) set.bits.nextSetBit(index(arguments.get(0))))
+		.add("intersect", 1, (set, interpreter, arguments) -> {
+			set.bits.and(other(arguments.get(0)));
+			return null;
+		})
+		.add("union", 1, (set, interpreter, arguments) -> {
+			set.bits.or(other(arguments.get(0)));
+			return null;
+		})
+		.add("difference", 1, (set, interpreter, arguments) -> {
+			set.bits.andNot(other(arguments.get(0)));
+			return null;
+		});
+
+	// ##################################################################
+	// Helpers
+
+	private static int index(Object value) {
+		if (value instanceof Integer) return checkIndex(null, (Integer)value);
+		if (value instanceof Double) return checkIndex(null, (Double)value);
+		throw new RuntimeError(null, "Bit index must be a number.");
+	}
+
+	private static int checkIndex(Token where, double index) {
+		// Any int but the largest, BitSet.length() would overflow
+		return (int) LoxIndexable.checkIndex(where, index, Integer.MAX_VALUE, "Bit");
+	}
+
+	private static BitSet other(Object value) {
+		if (!(value instanceof LoxBitSet)) {
+			throw new RuntimeError(null, "Expected a bit set.");
+		}
+		return ((LoxBitSet)value).bits;
+	}
+
+	@Override
+	Object get(Token name) {
+		if (methods == null) methods = METHODS.table();
+		// The length is one past the highest bit that is set
+		return METHODS.get(this, methods, name, bits.length());
+	}
+
+	@Override
+	void set(Token name, Object value) {
+		throw new RuntimeError(name, "Can't add properties to bit sets.");
+	}
+
+	@Override
+	public String toString() {
+		return bits.toString();
+	}
+}
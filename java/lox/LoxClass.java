@@ -14,9 +14,14 @@ class LoxClass implements LoxCallable {
 		this.methods = methods;
 	}
 
+	/*
+	 * Look up a method by its interned name,
+	 * see Environment
+	 */
 	LoxFunction findMethod(String name) {
-		if (methods.containsKey(name)) {
-			return methods.get(name);
+		LoxFunction method = methods.get(name);
+		if (method != null) {
+			return method;
 		}
 		if (superclass != null) {
 			return superclass.findMethod(name);
@@ -31,11 +36,20 @@ class LoxClass implements LoxCallable {
 
 	@Override
 	public Object call(Interpreter interpreter, List<Object> arguments) {
+		return instantiate(interpreter, findMethod("init"), arguments);
+	}
+
+	/*
+	 * call() with the initializer already looked up,
+	 * see TypeProfile.constructor()
+	 *
+	 * @initializer LoxFunction or null if there is none
+	 */
+	Object instantiate(Interpreter interpreter, LoxFunction initializer, List<Object> arguments) {
 		// "Create a new class" is just create a LoxInstance object
 		// and return it.
 		LoxInstance instance = new LoxInstance(this);
-		
-		LoxFunction initializer = findMethod("init");
+
 		if (initializer != null) {
 			// Call constructor
 			// bind the constuctor to the current object and call it
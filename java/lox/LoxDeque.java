@@ -0,0 +1,140 @@
+package lox;
+
+
+/*
+ * A double-ended queue made by the Deque() native
+ *
+ * The elements live in a ring buffer: @head is where the
+ * first one is and the rest follow, wrapping around the end
+ * of @elements. Adding or taking at either end is O(1), the
+ * buffer only moves things when it doubles.
+ */
+class LoxDeque extends LoxInstance implements LoxIndexable {
+	private Object[] elements = new Object[8]; // always a power of 2
+	private int head = 0;
+	private int size = 0;
+	// Methods looked up so far, see NativeMethods
+	private LoxCallable[] methods = null;
+
+	LoxDeque() {
+		super(null);
+	}
+
+	@Override
+	public Object get(Token bracket, double index) {
+		return elements[slot(checkIndex(bracket, index))];
+	}
+
+	@Override
+	public void set(Token bracket, double index, Object value) {
+		elements[slot(checkIndex(bracket, index))] = value;
+	}
+
+	/*
+	 * See NativeMethods
+	 */
+	private static final NativeMethods<LoxDeque> METHODS = new NativeMethods<LoxDeque>()
+		.add("pushFront", 1, (deque, interpreter, arguments) -> {
+			deque.pushFront(arguments.get(0));
+			return (double) deque.size;
+		})
+		.add("pushBack", 1, (deque, interpreter, arguments) -> {
+			deque.pushBack(arguments.get(0));
+			return (double) deque.size;
+		})
+		.add("popFront", 0, (deque, interpreter, arguments) -> deque.popFront())
+		.add("popBack", 0, (deque, interpreter, arguments) -> deque.popBack())
+		.add("peekFront", 0, (deque, interpreter, arguments) ->
+			deque.elements[deque.slot(deque.checkNotEmpty(0))])
+		.add("peekBack", 0, (deque, interpreter, arguments) ->
+			deque.elements[deque.slot(deque.checkNotEmpty(deque.size - 1))]);
+
+	// ##################################################################
+	// Helpers
+
+	private void pushFront(Object value) {
+		if (size == elements.length) grow();
+		head = (head - 1) & (elements.length - 1);
+		elements[head] = value;
+		size++;
+	}
+
+	private void pushBack(Object value) {
+		if (size == elements.length) grow();
+		elements[slot(size)] = value;
+		size++;
+	}
+
+	private Object popFront() {
+		int slot = slot(checkNotEmpty(0));
+		Object value = elements[slot];
+		elements[slot] = null; // let it be collected
+		head = (head + 1) & (elements.length - 1);
+		size--;
+		return value;
+	}
+
+	private Object popBack() {
+		int slot = slot(checkNotEmpty(size - 1));
+		Object value = elements[slot];
+		elements[slot] = null;
+		size--;
+		return value;
+	}
+
+	/*
+	 * Double the buffer, putting the first
+	 * element back at 0
+	 */
+	private void grow() {
+		Object[] grown = new Object[elements.length * 2];
+		for (int i = 0; i < size; i++) {
+			grown[i] = elements[slot(i)];
+		}
+		elements = grown;
+		head = 0;
+	}
+
+	/*
+	 * Helper method
+	 * Where the element @index places from the front is
+	 */
+	private int slot(int index) {
+		return (head + index) & (elements.length - 1);
+	}
+
+	private int checkIndex(Token where, double index) {
+		return (int) LoxIndexable.checkIndex(where, index, size, "Deque");
+	}
+
+	/*
+	 * @return int @index
+	 */
+	private int checkNotEmpty(int index) {
+		if (size == 0) throw new RuntimeError(null, "Deque is empty.");
+		return index;
+	}
+
+	@Override
+	Object get(Token name) {
+		if (methods == null) methods = METHODS.table();
+		return METHODS.get(this, methods, name, size);
+	}
+
+	@Override
+	void set(Token name, Object value) {
+		throw new RuntimeError(name, "Can't add properties to deques.");
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("[");
+		for (int i = 0; i < size; i++) {
+			buffer.append(LoxArray.text(elements[slot(i)]));
+			if (i != size - 1) buffer.append(", ");
+		}
+		buffer.append("]");
+		return buffer.toString();
+	}
+}
@@ -38,6 +38,14 @@ class LoxFunction implements LoxCallable {
 	public Object call(Interpreter interpreter, List<Object> arguments) {
 		Environment environment = new Environment(closure);
 		for (int i = 0; i < declaration.params.size(); i++) {
+			// Typed parameters are checked on the way in
+			// so the body can trust them
+			Token type = declaration.types.get(i);
+			if (type != null) {
+				interpreter.checkType(null, declaration.params.get(i),
+						      type.lexeme, arguments.get(i));
+			}
+
 			// Bind the argument name from the func decl
 			// and the value passed to this method.
 			environment.define(declaration.params.get(i).lexeme, arguments.get(i));
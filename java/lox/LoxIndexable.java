@@ -0,0 +1,27 @@
+package lox;
+
+/*
+ * Values that can be indexed with arr[i], see
+ * Interpreter.visitIndexExpr()
+ * Errors (bad index, bad value) are reported at @bracket
+ */
+interface LoxIndexable {
+	Object get(Token bracket, double index);
+	void set(Token bracket, double index, Object value);
+
+	/*
+	 * Helper method
+	 * Indices go from 0 up to (not including) @bound
+	 * @where is null for errors raised by callables
+	 *
+	 * @what String what is indexed, for the error
+	 * @return long @index if it's in bounds
+	 */
+	static long checkIndex(Token where, double index, long bound, String what) {
+		// Written so that NaN is out of bounds too
+		if (!(index >= 0 && index < bound)) {
+			throw new RuntimeError(where, what + " index out of bounds.");
+		}
+		return (long) index;
+	}
+}
@@ -1,12 +1,12 @@
 package lox;
 
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 class LoxInstance {
-	private LoxClass klass;
-	// States/Properties
-	private final Map<String, Object> fields = new HashMap<>();
+	final LoxClass klass;
+	// States/Properties, keyed by interned names (see Environment)
+	private final Map<String, Object> fields = new IdentityHashMap<>(4);
 
 	LoxInstance(LoxClass klass) {
 		this.klass = klass;
@@ -26,6 +26,14 @@ class LoxInstance {
 		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
 	}
 
+	/*
+	 * Whether @name is a field, fields hide
+	 * methods of the same name
+	 */
+	boolean hasField(String name) {
+		return fields.containsKey(name);
+	}
+
 	void set(Token name, Object value) {
 		fields.put(name.lexeme, value);
 	}
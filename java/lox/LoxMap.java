@@ -0,0 +1,267 @@
+package lox;
+
+import java.util.Arrays;
+
+/*
+ * A hash map made by the Map() native, keys are compared
+ * the way == compares them (see Interpreter.isEqual()) so
+ * 1 and 1.0 are the same key, and instances are only equal
+ * to themselves
+ *
+ * Open addressing with linear probing: @slots is the hash
+ * table, each slot holds the index of an entry plus one (0
+ * is an empty slot). The entries themselves are kept in
+ * insertion order in @keys, @values and @hashes, which is
+ * the order the map is iterated in. A removed entry is left
+ * in place with its key set to REMOVED, probing skips over
+ * it, and the entries are packed again the next time the
+ * table is rebuilt.
+ *
+ * Lookups by number or string, the usual keys, compare the
+ * hash first and then the key without going through
+ * isEqual(), see find().
+ */
+class LoxMap extends LoxInstance {
+	private static final Object REMOVED = new Object();
+	// Entries can use up to 2/3 of the slots
+	private static final int MIN_SLOTS = 8;
+
+	private int[] slots = new int[MIN_SLOTS];
+	private Object[] keys = new Object[capacity(MIN_SLOTS)];
+	private Object[] values = new Object[keys.length];
+	private int[] hashes = new int[keys.length];
+	// Entries in use, removed ones included
+	private int used = 0;
+	private int size = 0;
+	// Bumped when keys are added or removed, see forEach()
+	private int changes = 0;
+	// Methods looked up so far, see NativeMethods
+	private LoxCallable[] methods = null;
+
+	LoxMap() {
+		super(null);
+	}
+
+	/*
+	 * @return Object value for @key, or null if there's none
+	 */
+	Object get(Token where, Object key) {
+		int entry = find(checkKey(where, key));
+		return entry < 0 ? null : values[entry];
+	}
+
+	void set(Token where, Object key, Object value) {
+		key = checkKey(where, key);
+		int entry = find(key);
+		if (entry >= 0) {
+			values[entry] = value;
+			return;
+		}
+
+		if (used == keys.length) rebuild();
+		int hash = hash(key);
+		keys[used] = key;
+		values[used] = value;
+		hashes[used] = hash;
+		slots[emptySlot(hash)] = used + 1;
+		used++;
+		size++;
+		changes++;
+	}
+
+	/*
+	 * @return Object the value that was at @key, or null
+	 */
+	private Object remove(Object key) {
+		int entry = find(checkKey(null, key));
+		if (entry < 0) return null;
+
+		Object value = values[entry];
+		keys[entry] = REMOVED;
+		values[entry] = null; // let it be collected
+		size--;
+		changes++;
+		return value;
+	}
+
+	/*
+	 * See NativeMethods
+	 */
+	private static final NativeMethods<LoxMap> METHODS = new NativeMethods<LoxMap>()
+		.add("get", 1, (map, interpreter, arguments) -> map.get(null, arguments.get(0)))
+		.add("set", 2, (map, interpreter, arguments) -> {
+			map.set(null, arguments.get(0), arguments.get(1));
+			return arguments.get(1);
+		})
+		.add("has", 1, (map, interpreter, arguments) ->
+			map.find(checkKey(null, arguments.get(0))) >= 0)
+		.add("remove", 1, (map, interpreter, arguments) -> map.remove(arguments.get(0)))
+		.add("keys", 0, (map, interpreter, arguments) -> map.entries(map.keys))
+		.add("values", 0, (map, interpreter, arguments) -> map.entries(map.values))
+		.add("forEach", 1, (map, interpreter, arguments) -> {
+			map.forEach(interpreter, arguments.get(0));
+			return null;
+		});
+
+	// ##################################################################
+	// Table
+
+	/*
+	 * Index of the entry for @key, or -1
+	 */
+	private int find(Object key) {
+		int hash = hash(key);
+		int mask = slots.length - 1;
+
+		if (key instanceof Double) {
+			double number = (Double)key;
+			for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+				int entry = slots[slot] - 1;
+				if (hashes[entry] == hash && keys[entry] instanceof Double &&
+						(Double)keys[entry] == number) {
+					return entry;
+				}
+			}
+		} else {
+			for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+				int entry = slots[slot] - 1;
+				if (hashes[entry] == hash && key.equals(keys[entry])) return entry;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * The first free slot on the probe path of @hash,
+	 * there is always one
+	 */
+	private int emptySlot(int hash) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0) slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/*
+	 * Pack the entries and grow the table if more
+	 * than half of them are in use
+	 */
+	private void rebuild() {
+		int length = slots.length;
+		if (size * 2 >= keys.length) length *= 2;
+
+		Object[] oldKeys = keys;
+		Object[] oldValues = values;
+		int[] oldHashes = hashes;
+		int oldUsed = used;
+
+		slots = new int[length];
+		keys = new Object[capacity(length)];
+		values = new Object[keys.length];
+		hashes = new int[keys.length];
+		used = 0;
+		for (int i = 0; i < oldUsed; i++) {
+			if (oldKeys[i] == REMOVED) continue;
+			keys[used] = oldKeys[i];
+			values[used] = oldValues[i];
+			hashes[used] = oldHashes[i];
+			slots[emptySlot(oldHashes[i])] = used + 1;
+			used++;
+		}
+	}
+
+	// ##################################################################
+	// Helpers
+
+	/*
+	 * Helper method
+	 * Entries that fit in a table of @slots slots
+	 */
+	private static int capacity(int slots) {
+		return slots / 3 * 2;
+	}
+
+	/*
+	 * Helper method
+	 * Spread the bits so that keys that are close
+	 * (0, 1, 2... or "a1", "a2"...) don't land in
+	 * neighbouring slots
+	 */
+	private static int hash(Object key) {
+		int hash = key.hashCode();
+		hash *= 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/*
+	 * Helper method
+	 * Keys are stored as doubles, and -0 as 0,
+	 * so equal numbers are equal keys
+	 *
+	 * @return Object the key to store
+	 */
+	private static Object checkKey(Token where, Object key) {
+		if (key == null) throw new RuntimeError(where, "Map keys can't be nil.");
+		if (key instanceof Integer) return ((Integer)key).doubleValue();
+		if (key instanceof Double && (Double)key == 0) return 0.0;
+		return key;
+	}
+
+	/*
+	 * Helper method
+	 * The entries of @from in an array, in order
+	 */
+	private LoxArray entries(Object[] from) {
+		LoxArray array = new LoxArray(size);
+		int index = 0;
+		for (int i = 0; i < used; i++) {
+			if (keys[i] == REMOVED) continue;
+			array.set(null, index++, from[i]);
+		}
+		return array;
+	}
+
+	/*
+	 * Helper method
+	 * Call @function with every key and value, in order
+	 * Values can be changed along the way, keys can't
+	 */
+	private void forEach(Interpreter interpreter, Object function) {
+		if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 2) {
+			throw new RuntimeError(null, "forEach expects a function of 2 arguments.");
+		}
+
+		int start = changes;
+		for (int i = 0; i < used; i++) {
+			if (keys[i] == REMOVED) continue;
+			((LoxCallable)function).call(interpreter, Arrays.asList(keys[i], values[i]));
+			if (changes != start) {
+				throw new RuntimeError(null, "Map keys changed during forEach.");
+			}
+		}
+	}
+
+	@Override
+	Object get(Token name) {
+		if (methods == null) methods = METHODS.table();
+		return METHODS.get(this, methods, name, size);
+	}
+
+	@Override
+	void set(Token name, Object value) {
+		throw new RuntimeError(name, "Can't add properties to maps.");
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("{");
+		for (int i = 0; i < used; i++) {
+			if (keys[i] == REMOVED) continue;
+			if (buffer.length() > 1) buffer.append(", ");
+			buffer.append(LoxArray.text(keys[i])).append(": ").append(LoxArray.text(values[i]));
+		}
+		buffer.append("}");
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,193 @@
+package lox;
+
+import java.util.Arrays;
+
+/*
+ * A binary min-heap made by the PriorityQueue(comparator)
+ * native, pop() always takes the smallest element
+ *
+ * @comparator is a Lox function of 2 arguments returning a
+ * negative number when the first goes before the second, 0
+ * when they tie and a positive number otherwise. Without one
+ * (nil) the elements are numbers and the heap keeps them
+ * unboxed in @numbers, comparing them never calls into Lox.
+ *
+ * push() and pop() find where the element goes before they
+ * move anything, so a comparator that throws leaves the
+ * queue as it was before the call.
+ */
+class LoxPriorityQueue extends LoxInstance {
+	private final LoxCallable comparator;
+	// Exactly one of the two is in use, like in LoxArray
+	private double[] numbers = null;
+	private Object[] elements = null;
+	private int size = 0;
+	// Methods looked up so far, see NativeMethods
+	private LoxCallable[] methods = null;
+
+	LoxPriorityQueue(LoxCallable comparator) {
+		super(null);
+		this.comparator = comparator;
+		if (comparator == null) numbers = new double[8];
+		else elements = new Object[8];
+	}
+
+	/*
+	 * See NativeMethods
+	 */
+	private static final NativeMethods<LoxPriorityQueue> METHODS = new NativeMethods<LoxPriorityQueue>()
+		.add("push", 1, (queue, interpreter, arguments) -> {
+			queue.push(interpreter, arguments.get(0));
+			return (double) queue.size;
+		})
+		.add("pop", 0, (queue, interpreter, arguments) -> queue.pop(interpreter))
+		.add("peek", 0, (queue, interpreter, arguments) -> {
+			queue.checkNotEmpty();
+			return queue.at(0);
+		});
+
+	// ##################################################################
+	// Heap
+
+	private void push(Interpreter interpreter, Object value) {
+		if (numbers != null && !(value instanceof Double || value instanceof Integer)) {
+			throw new RuntimeError(null, "Queue elements must be numbers without a comparator.");
+		}
+
+		if (size == capacity()) grow();
+		int index = siftUp(interpreter, value, size);
+
+		// Done comparing, the parents on the way move down
+		for (int hole = size; hole > index; hole = (hole - 1) / 2) {
+			move((hole - 1) / 2, hole);
+		}
+		put(index, value);
+		size++;
+	}
+
+	private Object pop(Interpreter interpreter) {
+		checkNotEmpty();
+		Object top = at(0);
+		Object last = at(size - 1);
+		int index = siftDown(interpreter, last, size - 1);
+
+		// Done comparing, the children on the way from the
+		// top to @index move up, top down so none is lost.
+		// Numbered from 1, the ancestors of a node are its
+		// number shifted right.
+		int depth = 31 - Integer.numberOfLeadingZeros(index + 1);
+		for (int level = 1; level <= depth; level++) {
+			int child = ((index + 1) >> (depth - level)) - 1;
+			move(child, (child - 1) / 2);
+		}
+		put(index, last);
+		size--;
+		if (elements != null) elements[size] = null; // let it be collected
+		return top;
+	}
+
+	/*
+	 * Where @value goes when it starts at @index and
+	 * moves up, nothing is moved yet
+	 *
+	 * @return int
+	 */
+	private int siftUp(Interpreter interpreter, Object value, int index) {
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (compare(interpreter, value, parent) >= 0) break;
+			index = parent;
+		}
+		return index;
+	}
+
+	/*
+	 * Where @value goes when it starts at the top of
+	 * the first @size elements and moves down, nothing
+	 * is moved yet
+	 *
+	 * @return int
+	 */
+	private int siftDown(Interpreter interpreter, Object value, int size) {
+		int index = 0;
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= size) return index;
+			if (child + 1 < size && compare(interpreter, child + 1, child) < 0) child++;
+			if (compare(interpreter, value, child) <= 0) return index;
+			index = child;
+		}
+	}
+
+	/*
+	 * Negative if the element at @a goes before the
+	 * one at @b, the comparator decides if there is one
+	 */
+	private double compare(Interpreter interpreter, int a, int b) {
+		if (numbers != null) return Double.compare(numbers[a], numbers[b]);
+		return callComparator(interpreter, elements[a], elements[b]);
+	}
+
+	/*
+	 * Like compare() above, for @value that isn't
+	 * in the heap and the element at @index
+	 */
+	private double compare(Interpreter interpreter, Object value, int index) {
+		if (numbers != null) return Double.compare(((Number)value).doubleValue(), numbers[index]);
+		return callComparator(interpreter, value, elements[index]);
+	}
+
+	private double callComparator(Interpreter interpreter, Object a, Object b) {
+		Object result = comparator.call(interpreter, Arrays.asList(a, b));
+		if (result instanceof Double) return (Double)result;
+		if (result instanceof Integer) return (Integer)result;
+		throw new RuntimeError(null, "Comparator must return a number.");
+	}
+
+	// ##################################################################
+	// Helpers
+
+	private Object at(int index) {
+		return numbers != null ? (Object)numbers[index] : elements[index];
+	}
+
+	private void put(int index, Object value) {
+		if (numbers == null) elements[index] = value;
+		else if (value instanceof Integer) numbers[index] = (Integer)value;
+		else numbers[index] = (Double)value;
+	}
+
+	private void move(int from, int to) {
+		if (numbers != null) numbers[to] = numbers[from];
+		else elements[to] = elements[from];
+	}
+
+	private int capacity() {
+		return numbers != null ? numbers.length : elements.length;
+	}
+
+	private void grow() {
+		if (numbers != null) numbers = Arrays.copyOf(numbers, numbers.length * 2);
+		else elements = Arrays.copyOf(elements, elements.length * 2);
+	}
+
+	private void checkNotEmpty() {
+		if (size == 0) throw new RuntimeError(null, "Priority queue is empty.");
+	}
+
+	@Override
+	Object get(Token name) {
+		if (methods == null) methods = METHODS.table();
+		return METHODS.get(this, methods, name, size);
+	}
+
+	@Override
+	void set(Token name, Object value) {
+		throw new RuntimeError(name, "Can't add properties to priority queues.");
+	}
+
+	@Override
+	public String toString() {
+		return "<priority queue of " + size + ">";
+	}
+}
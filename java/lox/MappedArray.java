@@ -0,0 +1,90 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * An OffHeapArray whose memory is a file, made by the
+ * MappedArray(path, type, length) native
+ *
+ * The file is memory-mapped, reading an element reads
+ * the page cache and writing one changes the file, nothing
+ * is loaded up front or serialized, so a file can be far
+ * bigger than the heap and the next run sees what this run
+ * wrote. The OS writes changed pages back on its own time,
+ * flush() writes them back right away.
+ *
+ * The file holds the elements one after the other, in
+ * little-endian order, with no header.
+ */
+class MappedArray extends OffHeapArray {
+	private final Path path;
+	// Methods looked up so far, see NativeMethods
+	private LoxCallable[] methods = null;
+
+	private MappedArray(Path path, Type type, long length, ByteBuffer[] chunks) {
+		super(type, length, chunks);
+		this.path = path;
+	}
+
+	/*
+	 * Map the file at @path, creating it if it doesn't
+	 * exist and growing it if it's shorter than @length
+	 *
+	 * @param Long length or null to map all the file
+	 * @return MappedArray
+	 */
+	static MappedArray open(Path path, Type type, Long length) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			if (length == null) length = channel.size() / type.width;
+
+			long bytes = type.width * length;
+			ByteBuffer[] chunks = new ByteBuffer[(int)((bytes + CHUNK - 1) / CHUNK)];
+			for (int i = 0; i < chunks.length; i++) {
+				long from = (long)i * CHUNK;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, from,
+						Math.min(CHUNK, bytes - from)).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			// The mappings stay valid after the channel is closed
+			return new MappedArray(path, type, length, chunks);
+		}
+	}
+
+	/*
+	 * Write the changed pages back to the file
+	 */
+	void flush(Token where) {
+		for (ByteBuffer chunk : chunks(where)) {
+			((MappedByteBuffer)chunk).force();
+		}
+	}
+
+	/*
+	 * See NativeMethods, free() and the
+	 * rest are OffHeapArray's
+	 */
+	private static final NativeMethods<MappedArray> METHODS = new NativeMethods<MappedArray>()
+		.addAll(OffHeapArray.METHODS)
+		.add("flush", 0, (array, interpreter, arguments) -> {
+			array.flush(null);
+			return null;
+		});
+
+	@Override
+	Object get(Token name) {
+		if (methods == null) methods = METHODS.table();
+		return METHODS.get(this, methods, name, length);
+	}
+
+	@Override
+	public String toString() {
+		return "<" + type.name().toLowerCase() + " array of " + length +
+			" mapped from " + path.getFileName() + ">";
+	}
+}
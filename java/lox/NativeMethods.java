@@ -0,0 +1,120 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The methods of a native type (LoxArray, LoxMap...), the
+ * type's @T being the receiver
+ *
+ * Every type lists its methods once, in a static table:
+ * a name, an arity and a body taking the receiver. Looking a
+ * method up on a value binds it to that value, the way
+ * LoxFunction.bind() binds methods to an instance, and each
+ * value keeps what was bound in an array of its own (see
+ * bind()) so reading arr.push in a loop only makes a bound
+ * method the first time.
+ *
+ * Apart from their methods, native types have a single
+ * property, their length (see get()).
+ */
+class NativeMethods<T> {
+	interface Body<T> {
+		Object call(T self, Interpreter interpreter, List<Object> arguments);
+	}
+
+	private final Map<String, Integer> indices = new HashMap<>();
+	private final List<String> names = new ArrayList<>();
+	private final List<Integer> arities = new ArrayList<>();
+	private final List<Body<T>> bodies = new ArrayList<>();
+
+	NativeMethods<T> add(String name, int arity, Body<T> body) {
+		indices.put(name, names.size());
+		names.add(name);
+		arities.add(arity);
+		bodies.add(body);
+		return this;
+	}
+
+	/*
+	 * Add all the methods of @parent, the table of a
+	 * type this type extends, so a value of this type
+	 * binds all its methods from one table
+	 */
+	NativeMethods<T> addAll(NativeMethods<? super T> parent) {
+		for (int i = 0; i < parent.names.size(); i++) {
+			Body<? super T> body = parent.bodies.get(i);
+			add(parent.names.get(i), parent.arities.get(i), body::call);
+		}
+		return this;
+	}
+
+	/*
+	 * Room for the bound methods of one value
+	 */
+	LoxCallable[] table() {
+		return new LoxCallable[names.size()];
+	}
+
+	/*
+	 * The method @name bound to @self, made the first time
+	 * and then taken from @bound (see table())
+	 *
+	 * @return LoxCallable or null if there is no such method
+	 */
+	LoxCallable bind(T self, LoxCallable[] bound, String name) {
+		Integer index = indices.get(name);
+		if (index == null) return null;
+
+		if (bound[index] == null) {
+			bound[index] = new Bound<>(self, arities.get(index), bodies.get(index));
+		}
+		return bound[index];
+	}
+
+	/*
+	 * Read the property @name of @self: @length, or one of
+	 * the methods, bound with @bound (see bind())
+	 *
+	 * @return Object
+	 */
+	Object get(T self, LoxCallable[] bound, Token name, double length) {
+		if (name.lexeme.equals("length")) return length;
+
+		LoxCallable method = bind(self, bound, name.lexeme);
+		if (method != null) return method;
+
+		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+	}
+
+	private static class Bound<T> implements LoxCallable {
+		private final T self;
+		private final int arity;
+		private final Body<T> body;
+
+		Bound(T self, int arity, Body<T> body) {
+			this.self = self;
+			this.arity = arity;
+			this.body = body;
+		}
+
+		@Override
+		public int arity() {
+			return arity;
+		}
+
+		@Override
+		public Object call(Interpreter interpreter, List<Object> arguments) {
+			if (!Parallel.running()) return body.call(self, interpreter, arguments);
+			// Other threads may be using it, see Parallel
+			synchronized (self) {
+				return body.call(self, interpreter, arguments);
+			}
+		}
+
+		@Override
+		public String toString() { return "<native fn>"; }
+	}
+}
@@ -0,0 +1,204 @@
+package lox;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * A numeric array kept outside of the Java heap, made by
+ * the OffHeapArray(length, type) native
+ *
+ * The elements live in direct ByteBuffers, the GC never
+ * scans or moves them, it only sees a few small buffer
+ * objects. A single buffer is limited to 2^31 bytes, so the
+ * memory is split in chunks of CHUNK bytes and an array
+ * can have more than 2^31 elements.
+ *
+ * Elements are f64 (a double each) or u8 (a byte each,
+ * numbers are stored modulo 256), both little-endian so
+ * the layout is the same on every machine (see MappedArray).
+ *
+ * free() gives the memory back (unmaps the file for a
+ * MappedArray) right away, instead of when the GC gets
+ * around to collecting the buffers, using the array after
+ * that is a runtime error. This needs the buffers' cleaner,
+ * reached through sun.misc.Unsafe, on a JVM without it free()
+ * can only drop the buffers and leave them to the GC.
+ */
+class OffHeapArray extends LoxInstance implements LoxIndexable {
+	enum Type {
+		F64(8),
+		U8(1);
+
+		final int width; // bytes per element
+
+		Type(int width) {
+			this.width = width;
+		}
+
+		/*
+		 * @return Type or null if @name isn't one
+		 */
+		static Type of(String name) {
+			switch (name) {
+				case "f64": return F64;
+				case "u8": return U8;
+			}
+			return null;
+		}
+	}
+
+	// A power of 2 and a multiple of every width, so
+	// no element is split between 2 chunks
+	static final int CHUNK = 1 << 30;
+
+	// sun.misc.Unsafe and its invokeCleaner(ByteBuffer),
+	// both null when this JVM doesn't have them
+	private static final Object UNSAFE;
+	private static final Method CLEANER;
+	static {
+		Object unsafe = null;
+		Method cleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			cleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException error) {
+			unsafe = null;
+			cleaner = null;
+		}
+		UNSAFE = unsafe;
+		CLEANER = cleaner;
+	}
+
+	final Type type;
+	final long length;
+	// null once freed
+	private ByteBuffer[] chunks;
+	// Methods looked up so far, see NativeMethods
+	private LoxCallable[] methods = null;
+
+	OffHeapArray(Type type, long length) {
+		this(type, length, allocate(type.width * length));
+	}
+
+	/*
+	 * For memory someone else set up, see MappedArray
+	 */
+	OffHeapArray(Type type, long length, ByteBuffer[] chunks) {
+		super(null);
+		this.type = type;
+		this.length = length;
+		this.chunks = chunks;
+	}
+
+	@Override
+	public Object get(Token bracket, double index) {
+		long offset = offset(bracket, index);
+		ByteBuffer chunk = chunks[(int)(offset / CHUNK)];
+		int at = (int)(offset % CHUNK);
+
+		if (type == Type.F64) return chunk.getDouble(at);
+		return (double)(chunk.get(at) & 0xff);
+	}
+
+	@Override
+	public void set(Token bracket, double index, Object value) {
+		long offset = offset(bracket, index);
+		if (!(value instanceof Double || value instanceof Integer)) {
+			throw new RuntimeError(bracket, "Off-heap array elements must be numbers.");
+		}
+		double number = value instanceof Double ? (Double)value : (Integer)value;
+		ByteBuffer chunk = chunks[(int)(offset / CHUNK)];
+		int at = (int)(offset % CHUNK);
+
+		if (type == Type.F64) chunk.putDouble(at, number);
+		else chunk.put(at, (byte)(long)number);
+	}
+
+	/*
+	 * Give the memory back now, see the class comment
+	 * Nothing can reach the buffers once @chunks is
+	 * null, so they are never used after being cleaned
+	 */
+	void free() {
+		ByteBuffer[] freed = chunks;
+		chunks = null;
+		if (freed == null || CLEANER == null) return;
+
+		for (ByteBuffer chunk : freed) {
+			try {
+				CLEANER.invoke(UNSAFE, chunk);
+			} catch (ReflectiveOperationException error) {
+				return; // left to the GC
+			}
+		}
+	}
+
+	/*
+	 * See NativeMethods, MappedArray adds to it
+	 */
+	static final NativeMethods<OffHeapArray> METHODS = new NativeMethods<OffHeapArray>()
+		.add("free", 0, (array, interpreter, arguments) -> {
+			array.free();
+			return null;
+		});
+
+	@Override
+	Object get(Token name) {
+		if (methods == null) methods = METHODS.table();
+		return METHODS.get(this, methods, name, length);
+	}
+
+	@Override
+	void set(Token name, Object value) {
+		throw new RuntimeError(name, "Can't add properties to arrays.");
+	}
+
+	@Override
+	public String toString() {
+		return "<" + type.name().toLowerCase() + " array of " + length + ">";
+	}
+
+	// ##################################################################
+	// Helpers
+
+	/*
+	 * The memory, for subclasses
+	 * Throws if the array was freed
+	 */
+	ByteBuffer[] chunks(Token where) {
+		if (chunks == null) {
+			throw new RuntimeError(where, "Array was freed.");
+		}
+		return chunks;
+	}
+
+	/*
+	 * Byte offset of the element at @index
+	 */
+	private long offset(Token bracket, double index) {
+		chunks(bracket);
+		return LoxIndexable.checkIndex(bracket, index, length, "Array") * type.width;
+	}
+
+	/*
+	 * Direct buffers for @bytes bytes, CHUNK bytes
+	 * each but the last one
+	 */
+	private static ByteBuffer[] allocate(long bytes) {
+		ByteBuffer[] chunks = new ByteBuffer[(int)((bytes + CHUNK - 1) / CHUNK)];
+		try {
+			for (int i = 0; i < chunks.length; i++) {
+				int size = (int)Math.min(CHUNK, bytes - (long)i * CHUNK);
+				chunks[i] = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (OutOfMemoryError error) {
+			throw new RuntimeError(null, "Not enough memory for an array of " + bytes + " bytes.");
+		}
+		return chunks;
+	}
+}
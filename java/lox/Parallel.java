@@ -0,0 +1,224 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The parallelMap, parallelReduce and parallelFor natives
+ *
+ * The indices are split in halves on the common fork-join
+ * pool until the pieces are small enough, every piece then
+ * runs on its own fork of the Interpreter (see fork()): the
+ * Interpreter only has one environment being executed, so
+ * each thread needs its own, while the globals and the
+ * Resolver's tables are shared and only read.
+ *
+ * The functions run at the same time. Arrays and the other
+ * native collections can be shared: while any work is on the
+ * pool (see running()) every arr[i], method call and print of
+ * one holds its lock, so a change that moves the elements
+ * (LoxArray switching storage, a LoxMap being rebuilt) can't
+ * lose another thread's writes. A method that calls back into
+ * Lox (sort, forEach...) keeps its collection locked while
+ * the callback runs. Variables and instance fields aren't
+ * locked, the functions should only assign their own.
+ *
+ * Results come back in index order, and if the function
+ * fails the error of the lowest index is the one reported,
+ * whatever the order the pieces ran in.
+ *
+ * Everything runs in order on the calling thread when the
+ * Interpreter can't be used by several threads at once (see
+ * Interpreter.concurrent()).
+ */
+class Parallel {
+	// Pieces per thread, more than 1 so a thread that
+	// finishes early can take work from the others
+	private static final int PIECES = 4;
+	// Natives with work on the pool right now
+	private static final AtomicInteger running = new AtomicInteger();
+
+	/*
+	 * Whether Lox code may be running on several threads,
+	 * shared values need locking while it is
+	 */
+	static boolean running() {
+		return running.get() > 0;
+	}
+
+	/*
+	 * @return LoxArray @function called with every
+	 * element of @array
+	 */
+	static LoxArray map(Interpreter interpreter, LoxArray array, LoxCallable function) {
+		int length = array.length();
+		Object[] results = new Object[length];
+		run(interpreter, length, (fork, from, to) -> {
+			for (int i = from; i < to; i++) {
+				results[i] = function.call(fork, Arrays.asList(element(array, i)));
+			}
+			return null;
+		});
+
+		// Put together here, the workers never touch
+		// an array another thread can see
+		LoxArray mapped = new LoxArray(length);
+		for (int i = 0; i < length; i++) {
+			mapped.set(null, i, results[i]);
+		}
+		return mapped;
+	}
+
+	/*
+	 * Combine the elements of @array with @function
+	 * Pieces are combined in any grouping, so @function
+	 * must be associative and @identity must not change
+	 * what it's combined with (0 for +, 1 for *)
+	 *
+	 * @return Object @identity for an empty array
+	 */
+	static Object reduce(Interpreter interpreter, LoxArray array,
+				LoxCallable function, Object identity) {
+		return run(interpreter, array.length(), new Work() {
+			@Override
+			public Object leaf(Interpreter fork, int from, int to) {
+				Object result = identity;
+				for (int i = from; i < to; i++) {
+					result = function.call(fork, Arrays.asList(result, element(array, i)));
+				}
+				return result;
+			}
+
+			@Override
+			public Object combine(Interpreter fork, Object left, Object right) {
+				return function.call(fork, Arrays.asList(left, right));
+			}
+		});
+	}
+
+	/*
+	 * Call @function with every index below @count
+	 */
+	static void forEach(Interpreter interpreter, int count, LoxCallable function) {
+		run(interpreter, count, (fork, from, to) -> {
+			for (int i = from; i < to; i++) {
+				function.call(fork, Arrays.asList((double) i));
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * What a piece that isn't split does with the indices
+	 * @from up to @to, and how the results of 2 halves make
+	 * the result of the whole
+	 */
+	private interface Work {
+		Object leaf(Interpreter fork, int from, int to);
+
+		default Object combine(Interpreter fork, Object left, Object right) {
+			return null;
+		}
+	}
+
+	/*
+	 * One piece of the work
+	 */
+	private static class Range extends RecursiveAction {
+		private final Interpreter interpreter;
+		private final Work work;
+		private final int from;
+		private final int to;
+		private final int grain;
+		private Object result = null;
+		// Set instead of thrown, see compute()
+		private RuntimeError error = null;
+
+		Range(Interpreter interpreter, Work work, int from, int to, int grain) {
+			this.interpreter = interpreter;
+			this.work = work;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		/*
+		 * Both halves always run to the end and the left
+		 * one's error wins, so the error reported doesn't
+		 * depend on which thread was faster
+		 */
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				try {
+					result = work.leaf(interpreter.fork(), from, to);
+				} catch (RuntimeError failure) {
+					error = failure;
+				}
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			Range left = new Range(interpreter, work, from, middle, grain);
+			Range right = new Range(interpreter, work, middle, to, grain);
+			invokeAll(left, right);
+
+			error = left.error != null ? left.error : right.error;
+			if (error != null) return;
+			try {
+				result = work.combine(interpreter.fork(), left.result, right.result);
+			} catch (RuntimeError failure) {
+				error = failure;
+			}
+		}
+	}
+
+	// ##################################################################
+	// Helpers
+
+	/*
+	 * Helper method
+	 * Do @work over the indices below @count, on the
+	 * pool if it can be
+	 *
+	 * @return Object result of the whole
+	 */
+	private static Object run(Interpreter interpreter, int count, Work work) {
+		int grain = grain(interpreter, count);
+		Range range = new Range(interpreter, work, 0, count, grain);
+		if (grain >= count) {
+			range.compute(); // a single piece, no thread needed
+		} else {
+			running.incrementAndGet();
+			try {
+				ForkJoinPool.commonPool().invoke(range);
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+		if (range.error != null) throw range.error;
+		return range.result;
+	}
+
+	/*
+	 * Helper method
+	 * @array[@index], the function may be changing @array
+	 */
+	private static Object element(LoxArray array, int index) {
+		synchronized (array) {
+			return array.get(null, index);
+		}
+	}
+
+	/*
+	 * Helper method
+	 * The most indices a piece can have
+	 */
+	private static int grain(Interpreter interpreter, int count) {
+		if (!interpreter.concurrent()) return Math.max(count, 1);
+		int pieces = ForkJoinPool.getCommonPoolParallelism() * PIECES;
+		return Math.max(1, (count + pieces - 1) / pieces);
+	}
+}
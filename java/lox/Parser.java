@@ -9,11 +9,51 @@ import static lox.TokenType.*;
 class Parser {
 	private static class ParseError extends RuntimeException {}
 
-	private final List<Token> tokens;
-	private int current = 0;
+	/*
+	 * Operator precedence from loosest to tightest,
+	 * used by parsePrecedence()
+	 */
+	private enum Precedence {
+		NONE,
+		OR,		// or
+		AND,		// and
+		EQUALITY,	// == !=
+		COMPARISON,	// < > <= >=
+		TERM,		// + -
+		FACTOR,		// * / %
+		UNARY,		// ! -
+		CALL;		// . ()
+
+		Precedence tighter() {
+			return values()[ordinal() + 1];
+		}
+	}
+
+	// Tokens are pulled from the scanner on demand, the
+	// parser only ever needs to look one token back
+	// and one token ahead
+	private final TokenBuffer tokens;
+	private final Scanner scanner;
+	private final ErrorReporter errors;
+	// Skip the bodies of top level functions and methods,
+	// see LazyBody
+	private final boolean lazy;
+	// How many blocks deep the parser is
+	private int depth = 0;
 
-	Parser(List<Token> tokens) {
-		this.tokens = tokens;
+	Parser(Scanner scanner, ErrorReporter errors) {
+		this(scanner, errors, false);
+	}
+
+	/*
+	 * @param ErrorReporter errors the same one
+	 * @scanner reports to
+	 */
+	Parser(Scanner scanner, ErrorReporter errors, boolean lazy) {
+		this.tokens = new TokenBuffer(scanner);
+		this.scanner = scanner;
+		this.errors = errors;
+		this.lazy = lazy;
 	}
 
 	/*
@@ -40,6 +80,22 @@ class Parser {
 		return expression();
 	}
 
+	/*
+	 * Parse a function body skipped by skipBody(),
+	 * braces included
+	 *
+	 * @return Stmt[]
+	 */
+	List<Stmt> parseBody() {
+		try {
+			expect(LEFT_BRACE, "Expect '{' before function body.");
+			return block();
+		} catch (ParseError error) {
+			// Already reported, LazyBody stops the run
+			return new ArrayList<>();
+		}
+	}
+
 
 	/* 
 	 * The hierarchy is written in a way that
@@ -50,6 +106,7 @@ class Parser {
 		try {
 			if (match(CLASS)) return classDeclaration();
 			if (match(FUN)) return function("function");
+			if (match(IMPORT)) return importDeclaration();
 			if (match(VAR)) return varDeclaration();
 
 			return statement();
@@ -74,18 +131,18 @@ class Parser {
 
 		Expr.Variable superclass = null;
 		if (match(LESS)) {
-			consume(IDENTIFIER, "Expect superclass name.");
+			expect(IDENTIFIER, "Expect superclass name.");
 			superclass = new Expr.Variable(previous());
 		}
 
-		consume(LEFT_BRACE, "Expect '{' before class body.");
+		expect(LEFT_BRACE, "Expect '{' before class body.");
 
 		List<Stmt.Function> methods = new ArrayList<>();
 		while(!check(RIGHT_BRACE) && !isAtEnd()) {
 			methods.add(function("method"));
 		}
 
-		consume(RIGHT_BRACE, "Expect '}' after class body.");
+		expect(RIGHT_BRACE, "Expect '}' after class body.");
 		return new Stmt.Class(name, superclass, methods); // !superclass can be null
 	}
 
@@ -93,6 +150,7 @@ class Parser {
 	 * Rule for function declarationfunction
 	 * "fun" is parsed by the caller
 	 * "fun" IDENTIFIER "(" parameters? ")" block;
+	 * parameters -> IDENTIFIER typeHint? ( "," IDENTIFIER typeHint? )*;
 	 * kinda similar for the function handling
 	 * function call...
 	 *
@@ -101,8 +159,10 @@ class Parser {
 	 */
 	private Stmt.Function function(String kind) {
 		Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
-		consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+		expect(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 		List<Token> parameters = new ArrayList<>();
+		// One entry per parameter, null if it has no hint
+		List<Token> types = new ArrayList<>();
 		if (!check(RIGHT_PAREN)) {
 			do {
 				if (parameters.size() >= 255) {
@@ -110,32 +170,87 @@ class Parser {
 				}
 
 				parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+				types.add(typeHint());
 			} while (match(COMMA));
 		}
-		consume(RIGHT_PAREN, "Expect ')' after parameters.");
+		expect(RIGHT_PAREN, "Expect ')' after parameters.");
+
+		expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+		List<Stmt> body = lazy && depth == 0 ? skipBody() : block();
+		return new Stmt.Function(name, parameters, types, body);
+	}
+
+	/*
+	 * Match braces up to the end of a function body
+	 * without parsing it, "{" is parsed by the caller
+	 * Nested functions are parsed along with the body
+	 * so only top level ones are ever skipped
+	 *
+	 * @return LazyBody
+	 */
+	private List<Stmt> skipBody() {
+		int from = tokens.previousStart();
+		int line = tokens.previousLine();
+
+		int nested = 0;
+		while (!isAtEnd()) {
+			if (check(RIGHT_BRACE)) {
+				if (nested == 0) break;
+				nested--;
+			} else if (check(LEFT_BRACE)) {
+				nested++;
+			}
+			advance();
+		}
+		expect(RIGHT_BRACE, "Expect '}' after block.");
+
+		return new LazyBody(scanner.slice(from, tokens.previousEnd()), line, errors.file());
+	}
 
-		consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-		List<Stmt> body = block();
-		return new Stmt.Function(name, parameters, body);
+	/*
+	 * Rule for import declaration
+	 * "import" is parsed by the caller
+	 * "import" STRING ";"
+	 *
+	 * @return Stmt
+	 */
+	private Stmt importDeclaration() {
+		Token keyword = previous();
+		Token path = consume(STRING, "Expect module path after 'import'.");
+		expect(SEMICOLON, "Expect ';' after module path.");
+		return new Stmt.Import(keyword, path);
 	}
 
 	/*
 	 * Rule for variable declaration
 	 * "var" is parsed by the caller
-	 * "var" IDENTIFIER ( "=" expression )? ";"
+	 * "var" IDENTIFIER typeHint? ( "=" expression )? ";"
 	 *
 	 * @return Stmt
 	 */
 	private Stmt varDeclaration() {
 		Token name = consume(IDENTIFIER, "Expect variable name.");
+		Token type = typeHint();
 
 		Expr initializer = null;
 		if (match(EQUAL)) {
 			initializer = expression();
 		}
 
-		consume(SEMICOLON, "Expect ';' after variable declaration.");
-		return new Stmt.Var(name, initializer);
+		expect(SEMICOLON, "Expect ';' after variable declaration.");
+		return new Stmt.Var(name, type, initializer);
+	}
+
+	/*
+	 * Rule for optional type hint
+	 * ( ":" IDENTIFIER )?
+	 * The name is checked by the Resolver
+	 *
+	 * @return Token the type name or null
+	 */
+	private Token typeHint() {
+		if (!match(COLON)) return null;
+		return consume(IDENTIFIER, "Expect type name after ':'.");
 	}
 
 	// ##################################################################
@@ -171,7 +286,7 @@ class Parser {
 	 * return Stmt
 	 */
 	private Stmt forStatement() {
-		consume(LEFT_PAREN, "Expect '(' after 'for'.");
+		expect(LEFT_PAREN, "Expect '(' after 'for'.");
 
 		// initializer clause
 		Stmt initializer;
@@ -190,14 +305,14 @@ class Parser {
 		if (!check(SEMICOLON)) {
 			condition = expression();
 		}
-		consume(SEMICOLON, "Expect ';' after loop condition.");
+		expect(SEMICOLON, "Expect ';' after loop condition.");
 
 		// increment clause
 		Expr increment = null;
 		if (!check(RIGHT_PAREN)) {
 			increment = expression();
 		}
-		consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+		expect(RIGHT_PAREN, "Expect ')' after for clauses.");
 
 		// body statement
 		Stmt body = statement();
@@ -230,9 +345,9 @@ class Parser {
 	 * return Stmt
 	 */
 	private Stmt ifStatement() {
-		consume(LEFT_PAREN, "Expect '(' after 'if'.");
+		expect(LEFT_PAREN, "Expect '(' after 'if'.");
 		Expr condition = expression();
-		consume(RIGHT_PAREN, "Expect ')' after if condition.");
+		expect(RIGHT_PAREN, "Expect ')' after if condition.");
 		Stmt thenBranch = statement();
 		Stmt elseBranch = null;
 
@@ -254,7 +369,7 @@ class Parser {
 	 */
 	private Stmt printStatement() {
 		Expr value = expression();
-		consume(SEMICOLON, "Expect ';' after value.");
+		expect(SEMICOLON, "Expect ';' after value.");
 		return new Stmt.Print(value);
 	}
 
@@ -271,7 +386,7 @@ class Parser {
 			value = expression();
 		}
 
-		consume(SEMICOLON, "Expect ';' after return value.");
+		expect(SEMICOLON, "Expect ';' after return value.");
 		return new Stmt.Return(keyword, value);
 	}
 
@@ -282,9 +397,9 @@ class Parser {
 	 * @return Stmt
 	 */
 	private Stmt whileStatement() {
-		consume(LEFT_PAREN, "Expect '(' after 'while'.");
+		expect(LEFT_PAREN, "Expect '(' after 'while'.");
 		Expr condition = expression();
-		consume(RIGHT_PAREN, "Expect ')' after condition.");
+		expect(RIGHT_PAREN, "Expect ')' after condition.");
 		Stmt body = statement();
 
 		return new Stmt.While(condition, body);
@@ -302,10 +417,12 @@ class Parser {
 	private List<Stmt> block() {
 		List<Stmt> statements = new ArrayList<>();
 
+		depth++;
 		while (!check(RIGHT_BRACE) && !isAtEnd()) {
 			statements.add(declaration());
 		}
-		consume(RIGHT_BRACE, "Expect '}' after block.");
+		depth--;
+		expect(RIGHT_BRACE, "Expect '}' after block.");
 		return statements;
 	}
 
@@ -318,7 +435,7 @@ class Parser {
 	 */
 	private Stmt expressionStatement() {
 		Expr expr = expression();
-		consume(SEMICOLON, "Expect ';' after expression.");
+		expect(SEMICOLON, "Expect ';' after expression.");
 		return new Stmt.Expression(expr);
 	}
 
@@ -343,7 +460,7 @@ class Parser {
 	 */
 	private Expr assignment() {
 		// parse as a r-value
-		Expr expr = or();
+		Expr expr = parsePrecedence(Precedence.OR);
 
 		if (match(EQUAL)) {
 			Token equals = previous();
@@ -360,6 +477,10 @@ class Parser {
 				// Is l-value of `call '.'` expression
 				Expr.Get get = (Expr.Get)expr;
 				return new Expr.Set(get.object, get.name, value);
+			} else if (expr instanceof Expr.Index) {
+				// Is l-value of `call '['` expression
+				Expr.Index index = (Expr.Index)expr;
+				return new Expr.IndexSet(index.object, index.bracket, index.index, value);
 			}
 
 			error(equals, "Invalid assignment target.");
@@ -368,133 +489,123 @@ class Parser {
 	}
 
 	/*
-	 * Rule for logical 'or'
-	 * logic_and ( "or" logic_and )*;
+	 * Rule for every binary, logical, unary and
+	 * call/get expression, from logic_or down to call:
+	 * logic_or   -> logic_and ( "or" logic_and )*;
+	 * logic_and  -> equality ( "and" equality )*;
+	 * equality   -> comparison ( ( "!=" | "==" ) comparison )*;
+	 * comparison -> term ( ( ">" | ">=" | "<" | "<=" ) term )*;
+	 * term       -> factor ( ( "-" | "+" ) factor )*;
+	 * factor     -> unary ( ( "/" | "*" | "%" ) unary )*;
+	 * unary      -> ( "!" | "-" ) unary | call;
+	 * call       -> primary ( "(" arguments? ")" | "." IDENTIFIER | "[" expression "]" )*;
 	 *
-	 * @return Expr
-	 */
-	private Expr or() {
-		Expr expr = and();
-
-		while (match(OR)) {
-			Token operator = previous();
-			Expr right = and();
-			expr = new Expr.Logical(expr, operator, right);
-		}
-		return expr;
-	}
-
-	/*
-	 * Rule for logical 'and'
-	 * equality ( "and" equality )*;
+	 * Instead of one method per level (ten frames
+	 * deep for every literal), this is an operator
+	 * precedence (Pratt) parser: parse a prefix,
+	 * then keep folding operators into it as long as
+	 * they bind at least as tight as @precedence.
+	 * Builds the same trees as the rules above.
 	 *
+	 * @precedence Precedence the loosest operator to take
 	 * @return Expr
 	 */
-	private Expr and() {
-		Expr expr = equality();
+	private Expr parsePrecedence(Precedence precedence) {
+		Expr expr = prefix();
 
-		while (match(AND)) {
-			Token operator = previous();
-			Expr right = equality();
-			expr = new Expr.Logical(expr, operator, right);
-		}
-		return expr;
-	}
-
-	/*
-	 * Rule for equality
-	 * comparison ( ( "!=" | "==" ) comparison )*
-	 * Return the new expression or a
-	 * comparision expression to match
-	 * expression of higher precedence
-	 *
-	 * @return Expr an expression string
-	 */
-	private Expr equality() {
-		Expr expr = comparision();
-		
-		// Exit when next operator is not
-		// and equality operator.
-		while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-			Token operator = previous();
-			Expr right = comparision();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-		
-		return expr;
-	}
-
-	/*
-	 * Rule for comparision
-	 * term ( ( ">" | ">=" | "<" | "<=" ) term )*
-	 * Identical to the equality rule
-	 *
-	 * @return Expr an expression string
-	 */
-	private Expr comparision() {
-		Expr expr = term();
+		while (true) {
+			Precedence next = infixPrecedence(peekType());
+			if (next.compareTo(precedence) < 0) break;
 
-		while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-			Token operator = previous();
-			Expr right = term();
-			expr = new Expr.Binary(expr, operator, right);
+			advance();
+			expr = infix(expr, next);
 		}
 
 		return expr;
 	}
 
 	/*
-	 * Rule for term
-	 * factor ( ( "-" | "+" ) factor )*
-	 * Identical to other binary operator rules
+	 * Parse what can start an expression, a unary
+	 * operator or a primary
 	 *
-	 * @return Expr an expression string 
+	 * @return Expr
 	 */
-	private Expr term() {
-		Expr expr = factor();
-
-		while (match(MINUS, PLUS)) {
+	private Expr prefix() {
+		if (match(BANG, MINUS)) {
 			Token operator = previous();
-			Expr right = factor();
-			expr = new Expr.Binary(expr, operator, right);
+			Expr right = parsePrecedence(Precedence.UNARY);
+			return new Expr.Unary(operator, right);
 		}
 
-		return expr;
+		return primary();
 	}
 
 	/*
-	 * Rule for factor
-	 * unary ( ( "/" | "*" ) unary )*
-	 * Identical to other binary operator rules
+	 * Parse the rest of an infix/postfix expression
+	 * whose operator was just consumed
+	 * Right operands only take tighter operators
+	 * which makes binary operators left-associative
 	 *
-	 * @return Expr an expression string
+	 * @left Expr
+	 * @precedence Precedence of the operator
+	 * @return Expr
 	 */
-	private Expr factor() {
-		Expr expr = unary();
-
-		while (match(SLASH, STAR, MODULO)) {
-			Token operator = previous();
-			Expr right = unary();
-			expr = new Expr.Binary(expr, operator, right);
+	private Expr infix(Expr left, Precedence precedence) {
+		Token operator = previous();
+		switch (operator.type) {
+			case LEFT_PAREN:
+				// this means: fn(1)(2)(3)
+				return finishCall(left);
+			case DOT:
+				Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+				return new Expr.Get(left, name);
+			case LEFT_BRACKET:
+				Expr index = expression();
+				expect(RIGHT_BRACKET, "Expect ']' after index.");
+				return new Expr.Index(left, operator, index);
+			case AND:
+			case OR:
+				return new Expr.Logical(left, operator,
+					parsePrecedence(precedence.tighter()));
+			default:
+				return new Expr.Binary(left, operator,
+					parsePrecedence(precedence.tighter()));
 		}
-
-		return expr;
 	}
 
 	/*
-	 * Rule for unary
-	 * ("!" | "-") unary | primary
+	 * Helper method
+	 * How tight a token binds as an infix/postfix
+	 * operator, NONE if it isn't one
 	 *
-	 * @return Expr an expression string
-	 */
-	private Expr unary() {
-		if (match(BANG, MINUS)) {
-			Token operator = previous();
-			Expr right = unary();
-			return new Expr.Unary(operator, right);
+	 * @return Precedence
+	 */
+	private Precedence infixPrecedence(TokenType type) {
+		switch (type) {
+			case OR: return Precedence.OR;
+			case AND: return Precedence.AND;
+			case BANG_EQUAL:
+			case EQUAL_EQUAL:
+				return Precedence.EQUALITY;
+			case GREATER:
+			case GREATER_EQUAL:
+			case LESS:
+			case LESS_EQUAL:
+				return Precedence.COMPARISON;
+			case MINUS:
+			case PLUS:
+				return Precedence.TERM;
+			case SLASH:
+			case STAR:
+			case MODULO:
+				return Precedence.FACTOR;
+			case LEFT_PAREN:
+			case DOT:
+			case LEFT_BRACKET:
+				return Precedence.CALL;
+			default:
+				return Precedence.NONE;
 		}
-
-		return call();
 	}
 
 	/*
@@ -519,35 +630,6 @@ class Parser {
 		return new Expr.Call(callee, paren, arguments);
 	}
 
-	/*
-	 * Rule for call (function call)
-	 * primary ( "(" arguments? ")" )*;
-	 *
-	 * @return Expr
-	 */
-	private Expr call() {
-		// Parse the first expression
-		Expr expr = primary();
-
-		// Parse the returned expr again
-		// if the result is called
-		// this means: fn(1)(2)(3)
-		while (true) {
-			if (match(LEFT_PAREN)) {
-				// Parse the call expression
-				// using the callee expr
-				expr = finishCall(expr);
-			} else if (match(DOT)) {
-				Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-				expr = new Expr.Get(expr, name);
-			} else {
-				break;
-			}
-		}
-
-		return expr;
-	}
-
 	/*
 	 * Rule for primary
 	 * NUMBER | STRING | "true" | "false" | "nil" |"(" expression ")"
@@ -560,12 +642,12 @@ class Parser {
 		if (match(NIL)) return new Expr.Literal(null);
 
 		if (match(NUMBER, STRING)) {
-			return new Expr.Literal(previous().literal);
+			return new Expr.Literal(tokens.previousLiteral());
 		}
 
 		if (match(SUPER)) {
 			Token keyword = previous();
-			consume(DOT, "Expect '.' after 'super' .");
+			expect(DOT, "Expect '.' after 'super' .");
 			Token method = consume(IDENTIFIER, "Expect superclass method name.");
 			return new Expr.Super(keyword, method);
 		}
@@ -578,7 +660,7 @@ class Parser {
 
 		if (match(LEFT_PAREN)) {
 			Expr expr = expression();
-			consume(RIGHT_PAREN, "Expect ')' after expression.");
+			expect(RIGHT_PAREN, "Expect ')' after expression.");
 			return new Expr.Grouping(expr);
 		}
 
@@ -598,7 +680,22 @@ class Parser {
 	 * @throw RuntimeException 
 	 */
 	private Token consume(TokenType type, String message) {
-		if (check(type)) return advance();
+		expect(type, message);
+		return previous();
+	}
+
+	/*
+	 * Helper method
+	 * Like consume(), for tokens that are not kept
+	 * in the AST, so no Token object is created
+	 *
+	 * @throw RuntimeException
+	 */
+	private void expect(TokenType type, String message) {
+		if (check(type)) {
+			advance();
+			return;
+		}
 
 		throw error(peek(), message);
 	}
@@ -609,7 +706,7 @@ class Parser {
 	 * Create and return a parse error object
 	 */
 	private ParseError error(Token token, String message) {
-		Lox.error(token, message);
+		errors.error(token, message);
 		return new ParseError();
 	}
 
@@ -623,11 +720,12 @@ class Parser {
 		advance();
 
 		while (!isAtEnd()) {
-			if (previous().type == SEMICOLON) return;
+			if (tokens.previousType() == SEMICOLON) return;
 
-			switch (peek().type) {
+			switch (peekType()) {
 				case CLASS:
 				case FUN:
+				case IMPORT:
 				case VAR:
 				case FOR:
 				case IF:
@@ -671,19 +769,16 @@ class Parser {
 	 */
 	private boolean check(TokenType type) {
 		if (isAtEnd()) return false;
-		return peek().type == type;
+		return peekType() == type;
 	}
 
 	/*
 	 * Helper method
 	 * Consume the current token and
-	 * return it (the current index).
-	 *
-	 * @return integer
+	 * scan the next one.
 	 */
-	private Token advance() {
-		if(!isAtEnd()) current++;
-		return previous();
+	private void advance() {
+		if(!isAtEnd()) tokens.advance();
 	}
 
 	/*
@@ -694,7 +789,7 @@ class Parser {
 	 * @return boolean
 	 */
 	private boolean isAtEnd() {
-		return peek().type == EOF;
+		return peekType() == EOF;
 	}
 
 	/* 
@@ -704,7 +799,18 @@ class Parser {
 	 * @return Token
 	 */
 	private Token peek() {
-		return tokens.get(current);
+		return tokens.current();
+	}
+
+	/* 
+	 * Helper method
+	 * Get current token's type, cheaper
+	 * than peek().type
+	 *
+	 * @return TokenType
+	 */
+	private TokenType peekType() {
+		return tokens.currentType();
 	}
 	
 	/*
@@ -714,6 +820,6 @@ class Parser {
 	 * @return Token
 	 */
 	private Token previous() {
-		return tokens.get(current - 1);
+		return tokens.previous();
 	}
 }
@@ -0,0 +1,102 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/*
+ * An on-disk cache of resolved programs (like Python's .pyc)
+ *
+ * After a script is scanned, parsed, resolved and trimmed,
+ * its statements are written next to it (script + "c") as
+ * a FlatAst, together with what the Resolver stored in the
+ * Interpreter for each expression (scope depth, type
+ * specialization). The next run of the same source decodes
+ * that back into statements instead of going through the
+ * front end again.
+ *
+ * The file starts with a header of magic number, format
+ * VERSION and the hash of the source, anything that doesn't
+ * match (or fails to read) is ignored and the script is
+ * parsed as usual.
+ */
+class ProgramCache {
+	// Bump when the AST, TokenType, FlatAst or what
+	// the Resolver stores changes
+	static final int VERSION = 4;
+	private static final int MAGIC = 0x4c4f5843; // "LOXC"
+
+	/*
+	 * Load the program cached at @path and register its
+	 * resolution results with @interpreter
+	 *
+	 * @return List<Stmt> or null if there is no usable cache
+	 */
+	static List<Stmt> load(Path path, String hash, Interpreter interpreter) {
+		if (!Files.exists(path)) return null;
+
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+			if (!readString(in).equals(hash)) return null;
+
+			return FlatAst.read(in).decode(interpreter);
+		} catch (IOException | RuntimeException error) {
+			// A broken cache is no worse than no cache
+			return null;
+		}
+	}
+
+	/*
+	 * Write a resolved program to @path
+	 * Written to a temporary file first and moved in place
+	 * so concurrent runs never read half a file
+	 * Failing to write (e.g read-only directory) is not
+	 * an error, the next run just parses again
+	 */
+	static void save(Path path, String hash, List<Stmt> statements, Interpreter interpreter) {
+		Path tmp = null;
+		try {
+			Path dir = path.toAbsolutePath().getParent();
+			tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				writeString(out, hash);
+				FlatAst.encode(statements, interpreter).write(out);
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+				   StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException error) {
+			try {
+				if (tmp != null) Files.deleteIfExists(tmp);
+			} catch (IOException ignored) {}
+		}
+	}
+
+	// ##################################################################
+	// Helpers
+
+	/*
+	 * Length-prefixed UTF-8
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,81 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Front end for a program split over several files
+ *
+ * Every file is read, scanned and parsed on its own task
+ * of the common fork-join pool, with its own Scanner, Parser
+ * and ErrorReporter. Once all are done the statements are
+ * put together in the order the files were given, as if
+ * they were one file, and their errors are printed in that
+ * same order, each naming its file.
+ *
+ * Resolving is left to the caller, the Resolver fills in
+ * the Interpreter's tables which aren't made to be shared
+ * between threads.
+ */
+class ProgramLoader {
+	/*
+	 * Parse the files at @paths
+	 *
+	 * @param boolean lazy skip function bodies, see LazyBody
+	 * @return List<Stmt> or null if any file has an error
+	 */
+	static List<Stmt> parse(List<Path> paths, boolean lazy) throws IOException {
+		List<ParseTask> tasks = new ArrayList<>();
+		for (Path path : paths) {
+			tasks.add(new ParseTask(path, lazy));
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+		List<Stmt> program = new ArrayList<>();
+		boolean hadError = false;
+		for (ParseTask task : tasks) {
+			if (task.failure != null) throw task.failure;
+
+			task.errors.flush();
+			hadError |= task.errors.hadError();
+			program.addAll(task.join());
+		}
+
+		return hadError ? null : program;
+	}
+
+	/*
+	 * Read and parse one file
+	 */
+	private static class ParseTask extends RecursiveTask<List<Stmt>> {
+		private final Path path;
+		private final boolean lazy;
+		final ErrorReporter errors;
+		// Set when the file can't be read
+		IOException failure = null;
+
+		ParseTask(Path path, boolean lazy) {
+			this.path = path;
+			this.lazy = lazy;
+			errors = new ErrorReporter(path.getFileName().toString(), true);
+		}
+
+		@Override
+		protected List<Stmt> compute() {
+			ByteSource source;
+			try {
+				source = ByteSource.map(path);
+			} catch (IOException error) {
+				failure = error;
+				return null;
+			}
+
+			Parser parser = new Parser(new Scanner(source, errors), errors, lazy);
+			return parser.parse();
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package lox;
 
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 /*
@@ -26,6 +28,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	// key: name of varaible, value: initialized state, false
 	// means not initialized.
 	private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+	// Local var/fun declarations that haven't been referenced yet,
+	// one map per scope, walks in lockstep with @scopes.
+	// Whatever is left when a scope ends is never used.
+	private final Stack<Map<String, Token>> unreferenced = new Stack<>();
+	private final Set<Token> unused = new HashSet<>();
+	// Declared type hints of locals, walks in lockstep with @scopes.
+	// Untyped declarations have no entry.
+	private final Stack<Map<String, String>> types = new Stack<>();
+	// Type names that can be used as hints
+	private static final Set<String> typeNames = Set.of("num", "str", "bool");
 	// We want this class to also track invalid return statement by
 	// checking if it is currently in a function
 	private FunctionType currentFunction = FunctionType.NONE;
@@ -34,6 +46,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		this.interpreter = interpreter;
 	}
 
+	/*
+	 * A copy of @enclosing as it is right now, to resolve
+	 * a LazyBody later on as if it was resolved in place
+	 * Declarations the enclosing Resolver sees afterwards
+	 * aren't visible to the copy, just like in place
+	 */
+	private Resolver(Resolver enclosing) {
+		this.interpreter = enclosing.interpreter;
+		for (int i = 0; i < enclosing.scopes.size(); i++) {
+			scopes.push(new IdentityHashMap<>(enclosing.scopes.get(i)));
+			unreferenced.push(new IdentityHashMap<String, Token>());
+			types.push(new IdentityHashMap<>(enclosing.types.get(i)));
+		}
+		this.currentFunction = enclosing.currentFunction;
+		this.currentClass = enclosing.currentClass;
+	}
+
 	private enum FunctionType {
 		NONE,
 		FUNCTION,
@@ -112,6 +141,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		// Add the varaible into inner most scope
 		// so it shadows outer ones
 		declare(stmt.name);
+		track(stmt.name);
 		// Resolve intializer
 		if (stmt.initializer != null) {
 			// if the inner most scoped
@@ -119,6 +149,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			// is false, throw error.
 			resolve(stmt.initializer);
 		}
+		if (stmt.type != null) {
+			checkTypeName(stmt.type);
+			String actual = typeOf(stmt.initializer == null ?
+						new Expr.Literal(null) : stmt.initializer);
+			if (actual != null && !actual.equals(stmt.type.lexeme)) {
+				Lox.error(stmt.name, "Can't initialize '" + stmt.name.lexeme +
+					  "' of type " + stmt.type.lexeme + " with " + actual + ".");
+			}
+			hint(stmt.name, stmt.type);
+		}
 		// Update state of the variable as 
 		// initialized and ready to be used
 		define(stmt.name);
@@ -139,12 +179,20 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	public Void visitAssignExpr(Expr.Assign expr) {
 		resolve(expr.value);
 		resolveLocal(expr, expr.name);
+
+		// Values of a typed local are checked when they are
+		// assigned, unless we already know they fit
+		String type = declaredType(expr.name);
+		if (type != null && !type.equals(typeOf(expr.value))) {
+			interpreter.guard(expr, type);
+		}
 		return null;
 	}
 	@Override
 	public Void visitFunctionStmt(Stmt.Function stmt) {
 		declare(stmt.name);
 		define(stmt.name);
+		track(stmt.name);
 
 		// Resolve later to enable recursion
 		resolveFunction(stmt, FunctionType.FUNCTION);
@@ -163,6 +211,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     		return null;
 	}
 	@Override
+	public Void visitImportStmt(Stmt.Import stmt) {
+		// The module is resolved on its own when it's loaded,
+		// it only ever defines globals
+		return null;
+	}
+	@Override
   	public Void visitPrintStmt(Stmt.Print stmt) {
 		resolve(stmt.expression);
 		return null;
@@ -194,10 +248,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	public Void visitBinaryExpr(Expr.Binary expr) {
 		resolve(expr.left);
 		resolve(expr.right);
+
+		interpreter.site(expr);
+		if (isNumeric(expr)) interpreter.specialize(expr);
 		return null;
 	}
 	@Override
 	public Void visitCallExpr(Expr.Call expr) {
+		interpreter.site(expr);
 		resolve(expr.callee);
 
 		for (Expr argument : expr.arguments) {
@@ -208,6 +266,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	}
 	@Override
 	public Void visitGetExpr(Expr.Get expr) {
+		interpreter.site(expr);
 		resolve(expr.object);
 		return null;
 	}
@@ -217,6 +276,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		return null;
 	}
 	@Override
+	public Void visitIndexExpr(Expr.Index expr) {
+		resolve(expr.object);
+		resolve(expr.index);
+		return null;
+	}
+	@Override
+	public Void visitIndexSetExpr(Expr.IndexSet expr) {
+		resolve(expr.value);
+		resolve(expr.object);
+		resolve(expr.index);
+		return null;
+	}
+	@Override
 	public Void visitLiteralExpr(Expr.Literal expr) {
 		return null;
 	}
@@ -244,6 +316,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		return null;
 	}
 	@Override
+	public Void visitFlatExpr(Expr.Flat expr) {
+		// Only made once the program is resolved (see Flattener)
+		return null;
+	}
+	@Override
 	public Void visitThisExpr(Expr.This expr) {
 		if (currentClass == ClassType.NONE) {
 			Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
@@ -256,6 +333,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	@Override
 	public Void visitUnaryExpr(Expr.Unary expr) {
 		resolve(expr.right);
+
+		if (isNumeric(expr)) interpreter.specialize(expr);
 		return null;
 	}
 	void resolve(List<Stmt> statements) {
@@ -263,6 +342,33 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 			resolve(statement);
 		}
 	}
+	/*
+	 * Name tokens of local variable and function
+	 * declarations that are never referenced in
+	 * their scope, used by DeadCodeEliminator
+	 * Global declarations are never in here since
+	 * later code (or REPL lines) can still use them
+	 *
+	 * @return Set<Token>
+	 */
+	Set<Token> unused() {
+		return unused;
+	}
+	/*
+	 * Resolve the statements of a LazyBody, the scope
+	 * of the function ends with them
+	 */
+	void resolveBody(List<Stmt> body) {
+		resolve(body);
+		unused.addAll(unreferenced.peek().values());
+	}
+	/*
+	 * Flatten the trimmed statements of a LazyBody,
+	 * see Interpreter.flatten()
+	 */
+	List<Stmt> flatten(List<Stmt> body) {
+		return interpreter.flatten(body);
+	}
 	// #######################################################################################
 	// Helper methods
 	private void resolve(Stmt stmt) {
@@ -272,10 +378,23 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		expr.accept(this);
 	}
 	private void beginScope() {
-		scopes.push(new HashMap<String, Boolean>());
+		// Names are interned, see Environment
+		scopes.push(new IdentityHashMap<String, Boolean>());
+		unreferenced.push(new IdentityHashMap<String, Token>());
+		types.push(new IdentityHashMap<String, String>());
 	}
 	private void endScope() {
 		scopes.pop();
+		types.pop();
+		unused.addAll(unreferenced.pop().values());
+	}
+	/*
+	 * Remember a local declaration until something
+	 * references it
+	 */
+	private void track(Token name) {
+		if (unreferenced.isEmpty()) return;
+		unreferenced.peek().put(name.lexeme, name);
 	}
 	/*
 	 * Add new varaible to inner most scope
@@ -304,6 +423,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 	private void resolveLocal(Expr expr, Token name) {
 		for (int i = scopes.size() - 1; i >= 0; i--) {
 			if (scopes.get(i).containsKey(name.lexeme)) {
+				unreferenced.get(i).remove(name.lexeme);
 				// current scope is 0, next outer scope is 1 ...
 				interpreter.resolve(expr, scopes.size() - 1 - i);
 				return;
@@ -319,12 +439,126 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 		currentFunction = type; // to account for local nested funcitons
 
 		beginScope();
-		for (Token param : function.params) {
+		for (int i = 0; i < function.params.size(); i++) {
+			Token param = function.params.get(i);
 			declare(param);
 			define(param);
+
+			Token hint = function.types.get(i);
+			if (hint != null) {
+				checkTypeName(hint);
+				hint(param, hint);
+			}
 		}
+		if (function.body instanceof LazyBody) {
+			// Not parsed yet, resolved on first use
+			((LazyBody)function.body).defer(new Resolver(this));
+		} else {
 			resolve(function.body);
+		}
 		endScope();
 		currentFunction = enclosingFunction;
 	}
+	// #######################################################################################
+	// Type hints
+
+	/*
+	 * Report hints that aren't a known type
+	 */
+	private void checkTypeName(Token type) {
+		if (!typeNames.contains(type.lexeme)) {
+			Lox.error(type, "Unknown type '" + type.lexeme + "'.");
+		}
+	}
+	/*
+	 * Record the type hint of a local declaration
+	 * Globals are skipped, they can be redeclared by
+	 * any later statement, the Interpreter checks
+	 * them as it runs (see Interpreter.hintGlobal())
+	 */
+	private void hint(Token name, Token type) {
+		if (types.isEmpty()) return;
+		types.peek().put(name.lexeme, type.lexeme);
+	}
+	/*
+	 * Find the declared type of the variable @name
+	 * refers to, the same way resolveLocal() finds
+	 * its scope
+	 *
+	 * @return String type name, null if untyped or global
+	 */
+	private String declaredType(Token name) {
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			if (scopes.get(i).containsKey(name.lexeme)) {
+				return types.get(i).get(name.lexeme);
+			}
+		}
+		return null;
+	}
+	/*
+	 * The type an expression is known to evaluate to
+	 * without running it
+	 *
+	 * @return String type name, null if unknown
+	 */
+	private String typeOf(Expr expr) {
+		if (expr instanceof Expr.Literal) {
+			Object value = ((Expr.Literal)expr).value;
+			if (value instanceof Double || value instanceof Integer) return "num";
+			if (value instanceof String) return "str";
+			if (value instanceof Boolean) return "bool";
+			if (value == null) return "nil";
+			return null;
+		}
+		if (expr instanceof Expr.Grouping) {
+			return typeOf(((Expr.Grouping)expr).expression);
+		}
+		if (expr instanceof Expr.Variable) {
+			return declaredType(((Expr.Variable)expr).name);
+		}
+		if (expr instanceof Expr.Assign) {
+			return typeOf(((Expr.Assign)expr).value);
+		}
+		if (isNumeric(expr)) {
+			switch (operatorOf(expr)) {
+				case GREATER:
+				case GREATER_EQUAL:
+				case LESS:
+				case LESS_EQUAL:
+					return "bool";
+				default:
+					return "num";
+			}
+		}
+		return null;
+	}
+	/*
+	 * Check if an arithmetic or comparison expression only
+	 * ever sees numbers, then the interpreter can skip
+	 * checking its operands
+	 *
+	 * @return boolean
+	 */
+	private boolean isNumeric(Expr expr) {
+		if (expr instanceof Expr.Unary) {
+			Expr.Unary unary = (Expr.Unary)expr;
+			return unary.operator.type == TokenType.MINUS &&
+				"num".equals(typeOf(unary.right));
+		}
+		if (!(expr instanceof Expr.Binary)) return false;
+
+		Expr.Binary binary = (Expr.Binary)expr;
+		switch (binary.operator.type) {
+			case BANG_EQUAL:
+			case EQUAL_EQUAL:
+				return false;
+			default:
+				return "num".equals(typeOf(binary.left)) &&
+					"num".equals(typeOf(binary.right));
+		}
+	}
+	private TokenType operatorOf(Expr expr) {
+		if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type;
+		return ((Expr.Binary)expr).operator.type;
+	}
 }
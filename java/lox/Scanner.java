@@ -1,57 +1,139 @@
 package lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
 import static lox.TokenType.*;
 
 class Scanner {
-	// Raw lox source code as a string
-	private final String source;
-	private final List<Token> tokens = new ArrayList<>();
+	// Raw lox source code, a String (REPL) or
+	// the bytes of a mapped file (ByteSource)
+	private final CharSequence source;
+	private final ErrorReporter errors;
+	// Where scanned tokens go, see scan()
+	private TokenBuffer buffer = null;
+	private int slot = 0;
+	// Did the last scanToken() produce a token, false if
+	// it only skipped whitespace/comments/bad characters
+	private boolean produced = false;
+	// Identifier names seen so far, an open addressing table
+	// looked up by the source range so a name is only turned
+	// into a String the first time it shows up
+	private String[] names = new String[64];
+	private int nameCount = 0;
 	// Trackers for the source code
 	private int start = 0; // start of a lexeme
 	private int current = 0;
 	private int line = 1;
 
-	// Reserved keywords
-	private static final Map<String, TokenType> keywords;
+	// Spelling of the reserved keywords, keywords are recognized
+	// by identifierType(), this is only to name their tokens
+	private static final Map<TokenType, String> keywords;
+	// Spelling of the operators and punctuation, so every '+'
+	// kept in the AST shares one lexeme instead of a copy each
+	private static final Map<TokenType, String> symbols;
 
 	static {
-		keywords = new HashMap<>();
-		keywords.put("and",    AND);
-    		keywords.put("class",  CLASS);
-    		keywords.put("else",   ELSE);
-    		keywords.put("false",  FALSE);
-    		keywords.put("for",    FOR);
-    		keywords.put("fun",    FUN);
-    		keywords.put("if",     IF);
-    		keywords.put("nil",    NIL);
-    		keywords.put("or",     OR);
-    		keywords.put("print",  PRINT);
-    		keywords.put("return", RETURN);
-    		keywords.put("super",  SUPER);
-    		keywords.put("this",   THIS);
-    		keywords.put("true",   TRUE);
-    		keywords.put("var",    VAR);
-    		keywords.put("while",  WHILE);
+		keywords = new EnumMap<>(TokenType.class);
+		keywords.put(AND,    "and");
+		keywords.put(CLASS,  "class");
+		keywords.put(ELSE,   "else");
+		keywords.put(FALSE,  "false");
+		keywords.put(FOR,    "for");
+		keywords.put(FUN,    "fun");
+		keywords.put(IF,     "if");
+		keywords.put(IMPORT, "import");
+		keywords.put(NIL,    "nil");
+		keywords.put(OR,     "or");
+		keywords.put(PRINT,  "print");
+		keywords.put(RETURN, "return");
+		keywords.put(SUPER,  "super");
+		keywords.put(THIS,   "this");
+		keywords.put(TRUE,   "true");
+		keywords.put(VAR,    "var");
+		keywords.put(WHILE,  "while");
+
+		symbols = new EnumMap<>(TokenType.class);
+		symbols.put(LEFT_PAREN,    "(");
+		symbols.put(RIGHT_PAREN,   ")");
+		symbols.put(LEFT_BRACE,    "{");
+		symbols.put(RIGHT_BRACE,   "}");
+		symbols.put(LEFT_BRACKET,  "[");
+		symbols.put(RIGHT_BRACKET, "]");
+		symbols.put(COMMA,         ",");
+		symbols.put(DOT,           ".");
+		symbols.put(MINUS,         "-");
+		symbols.put(PLUS,          "+");
+		symbols.put(SEMICOLON,     ";");
+		symbols.put(SLASH,         "/");
+		symbols.put(STAR,          "*");
+		symbols.put(MODULO,        "%");
+		symbols.put(COLON,         ":");
+		symbols.put(BANG,          "!");
+		symbols.put(BANG_EQUAL,    "!=");
+		symbols.put(EQUAL,         "=");
+		symbols.put(EQUAL_EQUAL,   "==");
+		symbols.put(GREATER,       ">");
+		symbols.put(GREATER_EQUAL, ">=");
+		symbols.put(LESS,          "<");
+		symbols.put(LESS_EQUAL,    "<=");
 	}
 
-	Scanner(String source) {
+	Scanner(CharSequence source, ErrorReporter errors) {
 		this.source = source;
+		this.errors = errors;
 	}
 
+	/*
+	 * For a piece of a bigger source that starts
+	 * at @line, see LazyBody
+	 */
+	Scanner(CharSequence source, int line, ErrorReporter errors) {
+		this(source, errors);
+		this.line = line;
+	}
+
+	/*
+	 * Scan the whole source at once
+	 * Used to debug the scanner, the Parser pulls
+	 * tokens one by one through a TokenBuffer instead
+	 *
+	 * @return List<Token>
+	 */
 	List<Token> scanTokens() {
+		List<Token> tokens = new ArrayList<>();
+		TokenBuffer buffer = new TokenBuffer(this);
+		while (true) {
+			tokens.add(buffer.current());
+			if (buffer.currentType() == EOF) break;
+			buffer.advance();
+		}
+
+		return tokens;
+	}
+
+	/*
+	 * Scan just enough of the source to produce
+	 * the next token and write it in @slot of @buffer,
+	 * so scanning and parsing run interleaved and the
+	 * source is never held as a whole list of tokens
+	 * Keeps producing EOF once the source is done
+	 */
+	void scan(TokenBuffer buffer, int slot) {
+		this.buffer = buffer;
+		this.slot = slot;
+
 		while (!isAtEnd()) {
 			start = current;
+			produced = false;
 			scanToken();
+			if (produced) return;
 		}
 
-		// Append EOF after the last token
-		tokens.add(new Token(EOF, "", null, line));
-		return tokens;
+		// EOF after the last token
+		buffer.put(slot, EOF, current, 0, line, null, null);
 	}
 
 	/*
@@ -65,6 +147,8 @@ class Scanner {
 			case ')': addToken(RIGHT_PAREN); break;
 			case '{': addToken(LEFT_BRACE); break;
 			case '}': addToken(RIGHT_BRACE); break;
+			case '[': addToken(LEFT_BRACKET); break;
+			case ']': addToken(RIGHT_BRACKET); break;
 			case ',': addToken(COMMA); break;
 			case '.': addToken(DOT); break;
 			case '-': addToken(MINUS); break;
@@ -72,6 +156,7 @@ class Scanner {
 			case ';': addToken(SEMICOLON); break;
 			case '*': addToken(STAR); break;
 			case '%': addToken(MODULO); break;
+			case ':': addToken(COLON); break;
 
 			// 2 characers lexemes
 			case '!':
@@ -113,7 +198,7 @@ class Scanner {
 				} else if (isAlpha(c)) {
 					identifier();
 				} else {
-					Lox.error(line, "Unexpected character.");
+					errors.error(line, "Unexpected character.");
 				}
 				break;
 		}
@@ -125,10 +210,129 @@ class Scanner {
 	private void identifier() {
 		while (isAlphaNumeric(peek())) advance();
 
-		String text = source.substring(start, current);
-		TokenType type = keywords.get(text);
-		if (type == null) type = IDENTIFIER;
-		addToken(type);
+		// Only identifiers go through the name table,
+		// keywords already have their (interned) spelling
+		TokenType type = identifierType();
+		String name = type == IDENTIFIER ? name() : keywords.get(type);
+		buffer.put(slot, type, start, current - start, line, null, name);
+		produced = true;
+	}
+
+	/*
+	 * Tell keywords from identifiers straight from the
+	 * source, a trie written out as switches on the first
+	 * (and sometimes second) character, no lexeme string
+	 * and no hash look up needed
+	 *
+	 * @return TokenType the keyword or IDENTIFIER
+	 */
+	private TokenType identifierType() {
+		switch (source.charAt(start)) {
+			case 'a': return checkKeyword(1, "nd", AND);
+			case 'c': return checkKeyword(1, "lass", CLASS);
+			case 'e': return checkKeyword(1, "lse", ELSE);
+			case 'f':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'a': return checkKeyword(2, "lse", FALSE);
+						case 'o': return checkKeyword(2, "r", FOR);
+						case 'u': return checkKeyword(2, "n", FUN);
+					}
+				}
+				break;
+			case 'i':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'f': return checkKeyword(2, "", IF);
+						case 'm': return checkKeyword(2, "port", IMPORT);
+					}
+				}
+				break;
+			case 'n': return checkKeyword(1, "il", NIL);
+			case 'o': return checkKeyword(1, "r", OR);
+			case 'p': return checkKeyword(1, "rint", PRINT);
+			case 'r': return checkKeyword(1, "eturn", RETURN);
+			case 's': return checkKeyword(1, "uper", SUPER);
+			case 't':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'h': return checkKeyword(2, "is", THIS);
+						case 'r': return checkKeyword(2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v': return checkKeyword(1, "ar", VAR);
+			case 'w': return checkKeyword(1, "hile", WHILE);
+		}
+
+		return IDENTIFIER;
+	}
+
+	/*
+	 * Check if the rest of the current lexeme, from
+	 * @offset on, is exactly @rest
+	 *
+	 * @return TokenType @type if it is, else IDENTIFIER
+	 */
+	private TokenType checkKeyword(int offset, String rest, TokenType type) {
+		if (current - start != offset + rest.length()) return IDENTIFIER;
+
+		for (int i = 0; i < rest.length(); i++) {
+			if (source.charAt(start + offset + i) != rest.charAt(i)) return IDENTIFIER;
+		}
+		return type;
+	}
+
+	/*
+	 * Find the interned string of the identifier
+	 * between @start and @current, only allocating
+	 * it if it is a new name
+	 * Strings are interned with String.intern() so the
+	 * same name is the same object across every scanner
+	 *
+	 * @return String
+	 */
+	private String name() {
+		int hash = 0;
+		for (int i = start; i < current; i++) {
+			hash = 31 * hash + source.charAt(i);
+		}
+
+		int mask = names.length - 1;
+		int index = hash & mask;
+		while (names[index] != null) {
+			if (sameName(names[index])) return names[index];
+			index = (index + 1) & mask;
+		}
+
+		String name = text(start, current).intern();
+		names[index] = name;
+		if (++nameCount * 2 > names.length) growNames();
+		return name;
+	}
+
+	private boolean sameName(String name) {
+		if (name.length() != current - start) return false;
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != source.charAt(start + i)) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Double the name table, String.hashCode() is the
+	 * same hash name() computes over the source
+	 */
+	private void growNames() {
+		String[] old = names;
+		names = new String[old.length * 2];
+		int mask = names.length - 1;
+		for (String name : old) {
+			if (name == null) continue;
+			int index = name.hashCode() & mask;
+			while (names[index] != null) index = (index + 1) & mask;
+			names[index] = name;
+		}
 	}
 
 	/*
@@ -145,14 +349,14 @@ class Scanner {
 
 		// Special error case with dangling double-quote
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated string.");
+			errors.error(line, "Unterminated string.");
 			return;
 		}
 		// Consume the closing double-quote	
 		advance();
 
 		// Trim the surrounding quotes
-		String value = source.substring(start + 1, current - 1);
+		String value = text(start + 1, current - 1);
 		
 		// Parse special sequence
 		StringBuilder result = new StringBuilder();
@@ -163,7 +367,7 @@ class Scanner {
 			}	
 				
 			if (i + 1 >= value.length()) {
-				Lox.error(line, "Unclosed string literal.");
+				errors.error(line, "Unclosed string literal.");
 				return;
 			}
 
@@ -200,7 +404,7 @@ class Scanner {
 							j++;
 					}
 					if (octal < 0 || octal > 255) {
-						Lox.error(line, "Octal escape sequence out of bounds.");
+						errors.error(line, "Octal escape sequence out of bounds.");
 						return;
 					}
 					result.append((char) octal);
@@ -236,8 +440,15 @@ class Scanner {
 			isDouble = true;
 		}
 		
-		if (isDouble) addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
-		else addToken(NUMBER, Integer.parseInt(source.substring(start, current)));
+		// Integers too big for an int are still numbers
+		// (e.g the length of a big OffHeapArray)
+		String text = text(start, current);
+		double value = Double.parseDouble(text);
+		if (!isDouble && value <= Integer.MAX_VALUE) {
+			addToken(NUMBER, Integer.parseInt(text));
+		} else {
+			addToken(NUMBER, value);
+		}
 	}
 
 	// Helper methods -----------------------------------------
@@ -309,15 +520,33 @@ class Scanner {
 
 	/* Create a new token from the current lexeme */
 	private void addToken(TokenType type) {
-		addToken(type, null);
+		buffer.put(slot, type, start, current - start, line, null, symbols.get(type));
+		produced = true;
 	}
 
 	/* Create a new token from the current lexeme 
 	 * Overload for literal values 
 	 */
 	private void addToken(TokenType type, Object literal) {
-		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+		buffer.put(slot, type, start, current - start, line, literal, null);
+		produced = true;
+	}
+
+	/*
+	 * Cut a piece of the source out as a string
+	 * Decodes UTF-8 when reading a mapped file
+	 * Lexemes are only cut when the Parser needs them,
+	 * see TokenBuffer
+	 */
+	String text(int from, int to) {
+		return source.subSequence(from, to).toString();
+	}
+
+	/*
+	 * Like text() but without a copy
+	 */
+	CharSequence slice(int from, int to) {
+		return source.subSequence(from, to);
 	}
 
 	private boolean isAtEnd() {
@@ -9,6 +9,7 @@ abstract class Stmt {
 	R visitExpressionStmt(Expression stmt);
 	R visitFunctionStmt(Function stmt);
 	R visitIfStmt(If stmt);
+	R visitImportStmt(Import stmt);
 	R visitPrintStmt(Print stmt);
 	R visitReturnStmt(Return stmt);
 	R visitVarStmt(Var stmt);
@@ -55,9 +56,10 @@ abstract class Stmt {
 	final Expr expression;
 	}
  static class Function extends Stmt {
-	Function(Token name, List<Token> params, List<Stmt> body){
+	Function(Token name, List<Token> params, List<Token> types, List<Stmt> body){
 	this.name = name;
 	this.params = params;
+	this.types = types;
 	this.body = body;
 	}
 
@@ -68,6 +70,7 @@ abstract class Stmt {
 
 	final Token name;
 	final List<Token> params;
+	final List<Token> types;
 	final List<Stmt> body;
 	}
  static class If extends Stmt {
@@ -86,6 +89,20 @@ abstract class Stmt {
 	final Stmt thenBranch;
 	final Stmt elseBranch;
 	}
+ static class Import extends Stmt {
+	Import(Token keyword, Token path){
+	this.keyword = keyword;
+	this.path = path;
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor) {
+		return visitor.visitImportStmt(this);
+	}
+
+	final Token keyword;
+	final Token path;
+	}
  static class Print extends Stmt {
 	Print(Expr expression){
 	this.expression = expression;
@@ -113,8 +130,9 @@ abstract class Stmt {
 	final Expr value;
 	}
  static class Var extends Stmt {
-	Var(Token name, Expr initializer){
+	Var(Token name, Token type, Expr initializer){
 	this.name = name;
+	this.type = type;
 	this.initializer = initializer;
 	}
 
@@ -124,6 +142,7 @@ abstract class Stmt {
 	}
 
 	final Token name;
+	final Token type;
 	final Expr initializer;
 	}
  static class While extends Stmt {
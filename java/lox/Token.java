@@ -2,6 +2,8 @@ package lox;
 
 class Token {
 	final TokenType type;
+	// Interned for identifiers and keywords, runtime
+	// maps compare names by identity
 	final String lexeme;
 	final Object literal;
 	final int line;
@@ -3,8 +3,9 @@ package lox;
 enum TokenType {
 	// Single-character tokens.
 	LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+	LEFT_BRACKET, RIGHT_BRACKET,
 	COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
-	MODULO,
+	MODULO, COLON,
 	
 	// One or two character tokens.
 	BANG, BANG_EQUAL,
@@ -16,7 +17,7 @@ enum TokenType {
 	IDENTIFIER, STRING, NUMBER,
 	
 	// Keywords.
-	AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
+	AND, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR,
 	PRINT ,RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 
 	EOF
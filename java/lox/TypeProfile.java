@@ -0,0 +1,265 @@
+package lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Type feedback collected while a script runs with --profile
+ *
+ * Every binary, get and call expression is a "site", numbered
+ * in the order the Resolver visits them, so the same source
+ * always gives the same numbers. For each site we record:
+ * - Binary: the kinds of both operands
+ * - Get: the class of the receiver
+ * - Call: the callee
+ *
+ * The feedback is written to a side file (script + ".profile")
+ * together with a hash of the source. On the next run with
+ * --profile it is loaded back (and added to) if the hash still
+ * matches, and used right away instead of after the script
+ * has warmed up:
+ * - binary sites that only ever saw numbers are specialized
+ * - get sites that only ever saw one class cache the method
+ *   they find, see method()
+ * - call sites that only ever called one class cache its
+ *   initializer, see constructor()
+ */
+class TypeProfile {
+	// Operand kinds, one bit each
+	static final int NUM = 1;
+	static final int STR = 2;
+	static final int BOOL = 4;
+	static final int NIL = 8;
+	static final int OTHER = 16;
+
+	// Marks a get/call site that saw more than one receiver/callee
+	private static final String MEGAMORPHIC = "*";
+	// Bump when the sites or the file change
+	private static final int VERSION = 3;
+
+	private final String hash;
+	private final Map<Expr, Integer> sites = new HashMap<>();
+	private final List<Expr> order = new ArrayList<>();
+	// Feedback of this run, indexed by site number
+	private final List<int[]> operands = new ArrayList<>();
+	private final List<String> targets = new ArrayList<>();
+	// Feedback loaded from the last run
+	private final Map<Integer, int[]> previousOperands = new HashMap<>();
+	private final Map<Integer, String> previousTargets = new HashMap<>();
+	// Get/call sites that saw a single class last run
+	private final Map<Expr, Lookup> lookups = new HashMap<>();
+
+	/*
+	 * What a get/call site found the last time it looked
+	 * in @klass, a method or an initializer
+	 */
+	private static class Lookup {
+		LoxClass klass = null;
+		LoxFunction method = null;
+		// The constructor for @klass, see constructor()
+		LoxCallable constructor = null;
+	}
+
+	/*
+	 * @hash String hash of the source, see Lox.hash()
+	 */
+	TypeProfile(String hash) {
+		this.hash = hash;
+	}
+
+	/*
+	 * Load the feedback of a previous run, ignored
+	 * if the file doesn't exist, doesn't parse or the
+	 * source changed since it was written
+	 */
+	void load(Path path) throws IOException {
+		if (!Files.exists(path)) return;
+
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			if (header == null || !header.equals(header())) return;
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ", 3);
+				int site = Integer.parseInt(parts[1]);
+				if (parts[0].equals("binary")) {
+					String[] masks = parts[2].split(" ");
+					previousOperands.put(site, new int[] {
+						Integer.parseInt(masks[0]), Integer.parseInt(masks[1])
+					});
+				} else {
+					previousTargets.put(site, parts[2]);
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException error) {
+			// Not written by save(), start over
+			previousOperands.clear();
+			previousTargets.clear();
+		}
+	}
+
+	/*
+	 * Write the feedback of this run
+	 */
+	void save(Path path) throws IOException {
+		try (PrintWriter writer = new PrintWriter(
+				Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+			writer.println(header());
+			for (int site = 0; site < order.size(); site++) {
+				Expr expr = order.get(site);
+				if (expr instanceof Expr.Binary) {
+					int[] kinds = operands.get(site);
+					if (kinds[0] == 0) continue; // never ran
+					writer.println("binary " + site + " " + kinds[0] + " " + kinds[1]);
+				} else if (targets.get(site) != null) {
+					String kind = expr instanceof Expr.Get ? "get" : "call";
+					writer.println(kind + " " + site + " " + targets.get(site));
+				}
+			}
+		}
+	}
+
+	/*
+	 * Number a site, called by the Resolver in visiting order
+	 *
+	 * @return boolean true if the last run only saw numbers
+	 * 	   at this (binary) site
+	 */
+	boolean register(Expr expr) {
+		int site = order.size();
+		sites.put(expr, site);
+		order.add(expr);
+
+		// Start from what the last run saw so the feedback
+		// builds up across runs instead of forgetting it
+		int[] previous = previousOperands.get(site);
+		operands.add(previous == null ? new int[2] : previous.clone());
+		String target = previousTargets.get(site);
+		targets.add(target);
+
+		if (isClass(target)) lookups.put(expr, new Lookup());
+		return previous != null && previous[0] == NUM && previous[1] == NUM;
+	}
+
+	void observe(Expr.Binary expr, Object left, Object right) {
+		Integer site = sites.get(expr);
+		if (site == null) return;
+
+		int[] kinds = operands.get(site);
+		kinds[0] |= kindOf(left);
+		kinds[1] |= kindOf(right);
+	}
+
+	void observe(Expr expr, Object target) {
+		Integer site = sites.get(expr);
+		if (site == null) return;
+
+		String name = nameOf(target);
+		String seen = targets.get(site);
+		if (seen == null) targets.set(site, name);
+		else if (!seen.equals(name)) targets.set(site, MEGAMORPHIC);
+	}
+
+	/*
+	 * The method @object finds for the get @expr, from
+	 * the site's cache when the last run only saw one
+	 * class there. A method is looked up in the class
+	 * chain once per class instead of on every access.
+	 *
+	 * @return LoxFunction or null to look the property
+	 * 	   up as usual (no cache, a field, a native...)
+	 */
+	LoxFunction method(Expr.Get expr, Object object) {
+		Lookup lookup = lookups.get(expr);
+		if (lookup == null || object == null || object.getClass() != LoxInstance.class) {
+			return null;
+		}
+
+		LoxInstance instance = (LoxInstance)object;
+		if (instance.hasField(expr.name.lexeme)) return null; // fields win
+
+		if (lookup.klass != instance.klass) {
+			lookup.klass = instance.klass;
+			lookup.method = instance.klass.findMethod(expr.name.lexeme);
+		}
+		return lookup.method;
+	}
+
+	/*
+	 * What the call @expr should call to make an instance
+	 * of @klass: when the last run only called one class
+	 * there, a constructor holding the initializer so it
+	 * isn't looked up again on every call
+	 *
+	 * @return LoxCallable, @klass itself without a cache
+	 */
+	LoxCallable constructor(Expr.Call expr, LoxClass klass) {
+		Lookup lookup = lookups.get(expr);
+		if (lookup == null) return klass;
+
+		if (lookup.klass != klass) {
+			LoxFunction initializer = klass.findMethod("init");
+			lookup.klass = klass;
+			lookup.method = initializer;
+			lookup.constructor = new LoxCallable() {
+				@Override
+				public int arity() {
+					return initializer == null ? 0 : initializer.arity();
+				}
+
+				@Override
+				public Object call(Interpreter interpreter, List<Object> arguments) {
+					return klass.instantiate(interpreter, initializer, arguments);
+				}
+			};
+		}
+		return lookup.constructor;
+	}
+
+	// ##################################################################
+	// Helpers
+
+	private static int kindOf(Object value) {
+		if (value == null) return NIL;
+		if (value instanceof Double || value instanceof Integer) return NUM;
+		if (value instanceof String) return STR;
+		if (value instanceof Boolean) return BOOL;
+		return OTHER;
+	}
+
+	/*
+	 * Name a receiver class or callee, must not
+	 * contain new lines (one site per line)
+	 */
+	private static String nameOf(Object target) {
+		if (target instanceof LoxArray || target instanceof OffHeapArray) return "<array>";
+		if (target instanceof LoxMap) return "<map>";
+		if (target instanceof LoxInstance) {
+			LoxClass klass = ((LoxInstance)target).klass;
+			return klass == null ? "<native>" : "class " + klass.name;
+		}
+		if (target instanceof LoxClass) return "class " + ((LoxClass)target).name;
+		return String.valueOf(target).replace('\n', ' ');
+	}
+
+	/*
+	 * Whether a site only ever saw instances of one
+	 * class (get) or only ever called one class (call)
+	 */
+	private static boolean isClass(String target) {
+		return target != null && target.startsWith("class ");
+	}
+
+	private String header() {
+		return "profile " + VERSION + " " + hash;
+	}
+}
@@ -0,0 +1,107 @@
+package lox;
+
+/*
+ * The loops behind the vector methods of arrays of numbers
+ * (add, mul, fma, scale, dot, sum, min, max), over the first
+ * @n elements of unboxed double[]s
+ *
+ * They are written for the JIT: plain counted loops over
+ * arrays with no calls and no branches in them, which C2
+ * turns into SIMD instructions on its own. The reductions
+ * can't be turned around like that (a sum is one long chain
+ * of additions, each waiting for the one before), so they
+ * keep 4 sums going at once instead, which also means their
+ * result can differ in the last bits from adding the numbers
+ * up one by one.
+ */
+class Vectors {
+	private Vectors() {}
+
+	/*
+	 * @a += @b
+	 */
+	static void add(double[] a, double[] b, int n) {
+		for (int i = 0; i < n; i++) {
+			a[i] += b[i];
+		}
+	}
+
+	/*
+	 * @a *= @b
+	 */
+	static void mul(double[] a, double[] b, int n) {
+		for (int i = 0; i < n; i++) {
+			a[i] *= b[i];
+		}
+	}
+
+	/*
+	 * @a += @b * @c
+	 */
+	static void fma(double[] a, double[] b, double[] c, int n) {
+		for (int i = 0; i < n; i++) {
+			a[i] += b[i] * c[i];
+		}
+	}
+
+	/*
+	 * @a *= @factor
+	 */
+	static void scale(double[] a, double factor, int n) {
+		for (int i = 0; i < n; i++) {
+			a[i] *= factor;
+		}
+	}
+
+	static double dot(double[] a, double[] b, int n) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += a[i] * b[i];
+			s1 += a[i + 1] * b[i + 1];
+			s2 += a[i + 2] * b[i + 2];
+			s3 += a[i + 3] * b[i + 3];
+		}
+		for (; i < n; i++) {
+			s0 += a[i] * b[i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	static double sum(double[] a, int n) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i + 3 < n; i += 4) {
+			s0 += a[i];
+			s1 += a[i + 1];
+			s2 += a[i + 2];
+			s3 += a[i + 3];
+		}
+		for (; i < n; i++) {
+			s0 += a[i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/*
+	 * @n must not be 0
+	 */
+	static double min(double[] a, int n) {
+		double min = a[0];
+		for (int i = 1; i < n; i++) {
+			min = Math.min(min, a[i]);
+		}
+		return min;
+	}
+
+	/*
+	 * @n must not be 0
+	 */
+	static double max(double[] a, int n) {
+		double max = a[0];
+		for (int i = 1; i < n; i++) {
+			max = Math.max(max, a[i]);
+		}
+		return max;
+	}
+}
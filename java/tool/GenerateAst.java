@@ -29,8 +29,11 @@ public class GenerateAst {
 			"Assign   : Token name, Expr value",
 			"Binary	  : Expr left, Token operator, Expr right",
 			"Call 	  : Expr callee, Token paren, List<Expr> arguments",
+			"Flat     : FlatExpr code",
 			"Get	  : Expr object, Token name",
 			"Grouping : Expr expression",
+			"Index    : Expr object, Token bracket, Expr index",
+			"IndexSet : Expr object, Token bracket, Expr index, Expr value",
 			"Literal  : Object value",
 			"Logical  : Expr left, Token operator, Expr right",
 			"Set	  : Expr object, Token name, Expr value",
@@ -46,11 +49,13 @@ public class GenerateAst {
 			"Class	    : Token name, Expr.Variable superclass, " +
 					"List<Stmt.Function> methods",
 			"Expression : Expr expression",
-			"Function   : Token name, List<Token> params," + " List<Stmt> body",
+			"Function   : Token name, List<Token> params," +
+					" List<Token> types, List<Stmt> body",
 			"If	    : Expr condition, Stmt thenBranch, Stmt elseBranch",
+			"Import     : Token keyword, Token path",
 			"Print	    : Expr expression",
 			"Return	    : Token keyword, Expr value",
-			"Var	    : Token name, Expr initializer",
+			"Var	    : Token name, Token type, Expr initializer",
 			"While      : Expr condition, Stmt body"
 		));
 	}